@@ -0,0 +1,131 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package org.carbon.android.emulator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class benchmarks the boot wait of checkEmulatorBoot and the version check of checkForAgent through
+ * the adb client against a stand-in adb server, and the adb process based loops they replaced against a
+ * stand-in adb script, both with configurable latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class AdbPollingBenchmark {
+    @Param({"0", "50"})
+    private long latencyMillis;
+
+    @Param({"3000"})
+    private long bootMillis;
+
+    @Param({"1000"})
+    private long pollMillis;
+
+    @Param({"300"})
+    private int packages;
+
+    private FakeAdb fakeAdb;
+    private FakeAdbServer fakeAdbServer;
+    private AdbDevice adbDevice;
+
+    @Setup(Level.Trial)
+    public void createAdb() throws IOException {
+        fakeAdb = new FakeAdb(latencyMillis, bootMillis, packages);
+        fakeAdbServer = new FakeAdbServer(latencyMillis, bootMillis, packages);
+        adbDevice = new AdbDevice(fakeAdb.getLocation(), new AdbClient("127.0.0.1", fakeAdbServer.getPort(), null));
+    }
+
+    @Setup(Level.Invocation)
+    public void resetBoot() throws IOException {
+        fakeAdb.reset();
+        fakeAdbServer.reset();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteAdb() throws IOException {
+        fakeAdb.delete();
+        fakeAdbServer.stop();
+    }
+
+    @Benchmark
+    public long waitForBoot() throws IOException, InterruptedException, TimeoutException {
+        return adbDevice.waitForBoot(TimeUnit.MINUTES.toMillis(1));
+    }
+
+    @Benchmark
+    public void pollForBootWithProcesses() throws IOException, InterruptedException {
+        while (!runFakeAdb("shell", "getprop", "sys.boot_completed").contains("1")) {
+            Thread.sleep(pollMillis);
+        }
+    }
+
+    @Benchmark
+    public boolean checkForAgent() throws IOException {
+        return adbDevice.isInstalled(FakeAdbServer.AGENT);
+    }
+
+    @Benchmark
+    public boolean checkForAgentWithProcess() throws IOException {
+        return runFakeAdb("shell", "pm", "list", "packages").contains("package:org.wso2.iot.agent\n");
+    }
+
+    /**
+     * This method runs the stand-in adb script the way TryIt ran adb before the adb client.
+     */
+    private String runFakeAdb(String... args) throws IOException {
+        String[] command = new String[args.length + 1];
+        command[0] = fakeAdb.getLocation();
+        System.arraycopy(args, 0, command, 1, args.length);
+        Process process = new ProcessBuilder(command).start();
+
+        StringBuilder output = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                StandardCharsets.UTF_8))) {
+            String readLine;
+            while ((readLine = reader.readLine()) != null) {
+                output.append(readLine).append('\n');
+            }
+        }
+        return output.toString();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package org.carbon.android.emulator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class benchmarks the artifact downloader against a local HTTP server which supports Range requests,
+ * starting from nothing or resuming a download which was cut short after a part of each segment.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DownloadBenchmark {
+    @Param({"67108864"})
+    private int size;
+
+    @Param({"1", "4"})
+    private int connections;
+
+    @Param({"0", "50"})
+    private int resumedPercent;                 // part of each segment downloaded before the benchmark
+
+    private RangeHttpServer server;
+    private ArtifactDownloader downloader;
+    private File target;
+
+    @Setup(Level.Trial)
+    public void startServer() throws IOException {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        server = new RangeHttpServer(content);
+        downloader = new ArtifactDownloader(connections, 0, 0);
+        target = Files.createTempFile("download-benchmark", ".zip").toFile();
+    }
+
+    @Setup(Level.Invocation)
+    public void prepareTarget() {
+        deleteTarget();
+        if (resumedPercent == 0) {
+            return;
+        }
+        server.cutAfter((long) size / connections * resumedPercent / 100);
+        try {
+            new ArtifactDownloader(connections, 0, 0).download(server.getUrl("artifact.zip"), target.getPath());
+            throw new IllegalStateException("The download was not cut short");
+        } catch (IOException expected) {
+            // the partial file and its state are left for the benchmark to resume
+        } finally {
+            server.cutAfter(-1);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        server.stop();
+        deleteTarget();
+    }
+
+    @Benchmark
+    public String download() throws IOException {
+        return downloader.download(server.getUrl("artifact.zip"), target.getPath());
+    }
+
+    private void deleteTarget() {
+        //noinspection ResultOfMethodCallIgnored
+        target.delete();
+        //noinspection ResultOfMethodCallIgnored
+        new File(target.getPath() + ".part").delete();
+        //noinspection ResultOfMethodCallIgnored
+        new File(target.getPath() + ".part.state").delete();
+    }
+}
@@ -0,0 +1,190 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package org.carbon.android.emulator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * This class benchmarks the extraction of synthetic archives shaped like the SDK archives, with the
+ * zip extractor and with the single threaded 2 KB buffer loop it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExtractBenchmark {
+    @Param({"many-small", "few-large", "stored-image"})
+    private String shape;
+
+    @Param({"parallel", "legacy"})
+    private String engine;
+
+    private File workDirectory;
+    private File archive;
+    private File destination;
+    private ZipExtractor zipExtractor;
+
+    @Setup(Level.Trial)
+    public void createArchive() throws IOException {
+        workDirectory = Files.createTempDirectory("extract-benchmark").toFile();
+        archive = new File(workDirectory, shape + ".zip");
+        zipExtractor = new ZipExtractor(Runtime.getRuntime().availableProcessors());
+        Random random = new Random(shape.hashCode());
+
+        try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(archive)))) {
+            switch (shape) {
+                case "many-small":          // like build-tools and platform: thousands of small files
+                    for (int i = 0; i < 5000; i++) {
+                        addEntry(zip, "x86/d" + (i % 100) + "/f" + i, content(random, 2048 + random.nextInt(30000)),
+                                ZipEntry.DEFLATED);
+                    }
+                    break;
+                case "few-large":           // like sdk-tools: a few large compressible binaries
+                    for (int i = 0; i < 8; i++) {
+                        addEntry(zip, "x86/lib/f" + i, content(random, 16 * 1024 * 1024), ZipEntry.DEFLATED);
+                    }
+                    break;
+                default:                    // like the system image: one large incompressible stored image
+                    byte[] image = new byte[128 * 1024 * 1024];
+                    random.nextBytes(image);
+                    addEntry(zip, "x86/system.img", image, ZipEntry.STORED);
+                    addEntry(zip, "x86/build.prop", content(random, 4096), ZipEntry.DEFLATED);
+            }
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void cleanDestination() {
+        destination = new File(workDirectory, "out");
+        delete(destination);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteArchive() {
+        delete(workDirectory);
+    }
+
+    @Benchmark
+    public long extract() throws IOException {
+        if ("legacy".equals(engine)) {
+            return legacyExtract(archive, destination);
+        }
+        return zipExtractor.extract(archive, destination);
+    }
+
+    /**
+     * This method is the extraction loop TryIt.extractFolder used before the zip extractor.
+     */
+    private static long legacyExtract(File file, File newPath) throws IOException {
+        int BUFFER = 2048;
+        long total = 0;
+
+        try (ZipFile zip = new ZipFile(file)) {
+            Enumeration<? extends ZipEntry> zipFileEntries = zip.entries();
+            while (zipFileEntries.hasMoreElements()) {
+                ZipEntry entry = zipFileEntries.nextElement();
+                File destFile = new File(newPath, entry.getName());
+                //noinspection ResultOfMethodCallIgnored
+                destFile.getParentFile().mkdirs();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                try (BufferedInputStream is = new BufferedInputStream(zip.getInputStream(entry));
+                     BufferedOutputStream dest = new BufferedOutputStream(new FileOutputStream(destFile), BUFFER)) {
+                    byte data[] = new byte[BUFFER];
+                    int currentByte;
+                    while ((currentByte = is.read(data, 0, BUFFER)) != -1) {
+                        dest.write(data, 0, currentByte);
+                        total += currentByte;
+                    }
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * This method generates half random and half repeated bytes, which deflate about as well as binaries.
+     */
+    private static byte[] content(Random random, int size) {
+        byte[] data = new byte[size];
+        byte[] noise = new byte[size / 2];
+        random.nextBytes(noise);
+        System.arraycopy(noise, 0, data, 0, noise.length);
+        for (int i = noise.length; i < size; i++) {
+            data[i] = (byte) (i % 16);
+        }
+        return data;
+    }
+
+    private static void addEntry(ZipOutputStream zip, String name, byte[] data, int method) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(method);
+        if (method == ZipEntry.STORED) {
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            entry.setSize(data.length);
+            entry.setCompressedSize(data.length);
+            entry.setCrc(crc.getValue());
+        }
+        zip.putNextEntry(entry);
+        zip.write(data);
+        zip.closeEntry();
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package org.carbon.android.emulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+
+/**
+ * This class writes a stand-in adb script which answers the commands used by TryIt after a configurable
+ * latency. sys.boot_completed becomes 1 a configurable time after {@link #reset()}.
+ */
+class FakeAdb {
+    private File directory;
+    private File script;
+    private File bootStart;
+
+    FakeAdb(long latencyMillis, long bootMillis, int packages) throws IOException {
+        directory = Files.createTempDirectory("fake-adb").toFile();
+        script = new File(directory, "adb");
+        bootStart = new File(directory, "boot-start");
+
+        StringBuilder packageList = new StringBuilder();
+        for (int i = 0; i < packages; i++) {
+            packageList.append("package:com.example.app").append(i).append('\n');
+        }
+        packageList.append("package:org.wso2.iot.agent\n");
+        Files.write(new File(directory, "packages").toPath(), packageList.toString().getBytes(StandardCharsets.UTF_8));
+
+        String content = "#!/bin/sh\n"
+                + "booted() {\n"
+                + "  start=$(cat '" + bootStart + "' 2>/dev/null || echo 0)\n"
+                + "  [ $(( $(date +%s%N) / 1000000 - start )) -ge " + bootMillis + " ]\n"
+                + "}\n"
+                + "sleep " + String.format(Locale.ROOT, "%.3f", latencyMillis / 1000.0) + "\n"
+                + "case \"$*\" in\n"
+                + "  *sys.boot_completed*)\n"
+                + "    if booted; then echo 1; else echo; fi ;;\n"
+                + "  *\"pm list packages\"*)\n"
+                + "    cat '" + new File(directory, "packages") + "' ;;\n"
+                + "  *)\n"
+                + "    echo ;;\n"
+                + "esac\n";
+        Files.write(script.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        if (!script.setExecutable(true)) {
+            throw new IOException("Unable to make " + script + " executable");
+        }
+    }
+
+    String getLocation() {
+        return script.getPath();
+    }
+
+    /**
+     * This method starts the boot over from now.
+     *
+     * @throws IOException if the boot start cannot be written.
+     */
+    void reset() throws IOException {
+        Files.write(bootStart.toPath(), String.valueOf(System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    void delete() {
+        File[] children = directory.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                //noinspection ResultOfMethodCallIgnored
+                child.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        directory.delete();
+    }
+}
@@ -0,0 +1,107 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package org.carbon.android.emulator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class benchmarks the replay of a sensor trace with pipelined batches against a stand-in emulator
+ * console, and the same commands sent one at a time, both with a configurable round trip latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TraceReplayBenchmark {
+    private static final String AUTH_TOKEN = "Vq3tN8bYxK0mL2pR";
+
+    @Param({"0", "1"})
+    private long latencyMillis;
+
+    @Param({"1000"})
+    private int readings;
+
+    private FakeEmulatorConsole fakeConsole;
+    private File tokenFile;
+    private File traceFile;
+    private EmulatorTrace trace;
+    private EmulatorConsole console;
+
+    @Setup(Level.Trial)
+    public void createConsole() throws IOException {
+        fakeConsole = new FakeEmulatorConsole(AUTH_TOKEN, latencyMillis);
+        tokenFile = File.createTempFile("console", ".token");
+        Files.write(tokenFile.toPath(), AUTH_TOKEN.getBytes(StandardCharsets.UTF_8));
+
+        List<String> lines = new ArrayList<>();
+        lines.add("# time,sensor,x,y,z");
+        for (int i = 0; i < readings; i++) {
+            // a 200 Hz accelerometer
+            lines.add(i * 5 + ",acceleration," + Math.sin(i / 20.0) + ",9.81," + Math.cos(i / 20.0));
+        }
+        traceFile = File.createTempFile("sensors", ".csv");
+        Files.write(traceFile.toPath(), lines, StandardCharsets.UTF_8);
+        trace = EmulatorTrace.read(traceFile, EmulatorTrace.Kind.SENSOR, 0);
+        console = new EmulatorConsole("127.0.0.1", fakeConsole.getPort(), tokenFile, 10000);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteConsole() throws IOException {
+        console.close();
+        fakeConsole.stop();
+        Files.delete(tokenFile.toPath());
+        Files.delete(traceFile.toPath());
+    }
+
+    @Benchmark
+    public long replayPipelined() throws IOException {
+        return new TraceReplayer(console, trace, 0, false).replay();
+    }
+
+    @Benchmark
+    public long replayOneByOne() throws IOException {
+        for (int i = 0; i < trace.size(); i++) {
+            console.send(trace.getCommand(i));
+        }
+        return trace.size();
+    }
+}
@@ -0,0 +1,265 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class speaks the adb host protocol to the adb server, so device commands run over sockets
+ * instead of starting an adb process for each of them.
+ */
+class AdbClient {
+    static final int DEFAULT_PORT = 5037;
+    private static final int CONNECT_TIMEOUT = 2000;
+    private static final int SYNC_DATA_MAX = 64 * 1024;
+
+    private String host;
+    private int port;
+    private String serial;                      // serial of the device, null for the only device
+
+    AdbClient(String host, int port, String serial) {
+        this.host = host;
+        this.port = port;
+        this.serial = serial;
+    }
+
+    String getSerial() {
+        return serial;
+    }
+
+    /**
+     * This method checks whether the adb server is accepting connections.
+     *
+     * @return true if the server is running.
+     */
+    boolean isServerRunning() {
+        try (Socket socket = connect()) {
+            send(socket, "host:version");
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * This method checks whether the device is connected to the adb server.
+     *
+     * @return true if the device is online.
+     */
+    boolean isDeviceOnline() {
+        try {
+            openTransport().close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * This method runs a shell command in the device and returns its output.
+     *
+     * @param command - the shell command.
+     * @return the output with the carriage returns of the terminal removed.
+     * @throws IOException if the device is not available or the command cannot be run.
+     */
+    String shell(String command) throws IOException {
+        try (Socket socket = openService("shell:" + command)) {
+            return readAll(socket.getInputStream()).replace("\r\n", "\n");
+        }
+    }
+
+    /**
+     * This method starts a shell command in the device and returns the connection, so a long running
+     * command can be read as it produces output.
+     *
+     * @param command - the shell command.
+     * @param timeout - read timeout of the connection in milliseconds, 0 for none.
+     * @return the connection of the command.
+     * @throws IOException if the device is not available or the command cannot be run.
+     */
+    Socket openShell(String command, int timeout) throws IOException {
+        Socket socket = openService("shell:" + command);
+        socket.setSoTimeout(timeout);
+        return socket;
+    }
+
+    /**
+     * This method starts a command in the device without a terminal and returns the connection, so a long
+     * running command with binary output can be read as it produces output.
+     *
+     * @param command - the command.
+     * @param timeout - read timeout of the connection in milliseconds, 0 for none.
+     * @return the connection of the command.
+     * @throws IOException if the device is not available or the command cannot be run.
+     */
+    Socket openExec(String command, int timeout) throws IOException {
+        Socket socket = openService("exec:" + command);
+        socket.setSoTimeout(timeout);
+        return socket;
+    }
+
+    /**
+     * This method runs a command in the device without a terminal, streaming the file to its input, and
+     * returns its output.
+     *
+     * @param command - the command, which reads the whole file from its input.
+     * @param input   - the file to stream.
+     * @return the output.
+     * @throws IOException if the device is not available or the file cannot be streamed.
+     */
+    String execIn(String command, File input) throws IOException {
+        try (Socket socket = openService("exec:" + command); InputStream in = new FileInputStream(input)) {
+            OutputStream out = socket.getOutputStream();
+            copy(in, out);
+            out.flush();
+            return readAll(socket.getInputStream());
+        }
+    }
+
+    /**
+     * This method copies a file to the device with the sync service.
+     *
+     * @param local  - the file to copy.
+     * @param remote - path of the file in the device.
+     * @param mode   - unix permissions of the file in the device.
+     * @throws IOException if the file cannot be copied.
+     */
+    void push(File local, String remote, int mode) throws IOException {
+        try (Socket socket = openService("sync:"); InputStream in = new FileInputStream(local)) {
+            OutputStream out = socket.getOutputStream();
+            byte[] pathAndMode = (remote + "," + (0100000 | mode)).getBytes(StandardCharsets.UTF_8);
+            out.write(syncHeader("SEND", pathAndMode.length));
+            out.write(pathAndMode);
+
+            byte[] data = new byte[SYNC_DATA_MAX];
+            int read;
+            while ((read = in.read(data)) != -1) {
+                out.write(syncHeader("DATA", read));
+                out.write(data, 0, read);
+            }
+            out.write(syncHeader("DONE", (int) (local.lastModified() / 1000)));
+            out.flush();
+
+            DataInputStream response = new DataInputStream(socket.getInputStream());
+            byte[] id = new byte[4];
+            response.readFully(id);
+            byte[] length = new byte[4];
+            response.readFully(length);
+            if (!"OKAY".equals(new String(id, StandardCharsets.US_ASCII))) {
+                byte[] message = new byte[ByteBuffer.wrap(length).order(ByteOrder.LITTLE_ENDIAN).getInt()];
+                response.readFully(message);
+                throw new IOException("Unable to push " + local + ": " + new String(message, StandardCharsets.UTF_8));
+            }
+            out.write(syncHeader("QUIT", 0));
+        }
+    }
+
+    /**
+     * This method connects to the device and opens the service.
+     */
+    private Socket openService(String service) throws IOException {
+        Socket socket = openTransport();
+        try {
+            send(socket, service);
+            return socket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * This method connects to the adb server and switches the connection to the device.
+     */
+    private Socket openTransport() throws IOException {
+        Socket socket = connect();
+        try {
+            send(socket, serial == null ? "host:transport-any" : "host:transport:" + serial);
+            return socket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+        return socket;
+    }
+
+    /**
+     * This method sends a request, prefixed with its length in four hex digits, and reads the status.
+     */
+    private static void send(Socket socket, String request) throws IOException {
+        byte[] payload = request.getBytes(StandardCharsets.UTF_8);
+        OutputStream out = socket.getOutputStream();
+        out.write(String.format("%04x", payload.length).getBytes(StandardCharsets.US_ASCII));
+        out.write(payload);
+        out.flush();
+
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        byte[] status = new byte[4];
+        in.readFully(status);
+        String statusText = new String(status, StandardCharsets.US_ASCII);
+        if ("OKAY".equals(statusText)) {
+            return;
+        }
+        String message = statusText;
+        if ("FAIL".equals(statusText)) {
+            byte[] length = new byte[4];
+            in.readFully(length);
+            byte[] text = new byte[Integer.parseInt(new String(length, StandardCharsets.US_ASCII), 16)];
+            in.readFully(text);
+            message = new String(text, StandardCharsets.UTF_8);
+        }
+        throw new IOException(request + " failed: " + message);
+    }
+
+    private static byte[] syncHeader(String id, int value) {
+        return ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+                .put(id.getBytes(StandardCharsets.US_ASCII)).putInt(value).array();
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        copy(in, output);
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] data = new byte[8192];
+        int read;
+        while ((read = in.read(data)) != -1) {
+            out.write(data, 0, read);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class runs the commands used to control the device through the adb server.
+ */
+class AdbDevice {
+    private static final String BOOT_COMPLETED = "boot_completed";
+    // waits on the device, so a single adb connection covers the whole boot
+    private static final String WAIT_FOR_BOOT_SCRIPT = "while [ \"$(getprop sys.boot_completed)\" != 1 ]; do "
+            + "sleep 0.1 2>/dev/null || sleep 1; done; echo " + BOOT_COMPLETED;
+    private static final String REMOTE_TEMP_FOLDER = "/data/local/tmp/";
+    private static final long RECONNECT_MILLIS = 100;
+    private static final int STREAMED_INSTALL_SDK = 24;        // first version with "cmd package install"
+
+    private String adbLocation;                 // location of executable file adb, used to start the server
+    private AdbClient adbClient;
+    private boolean serverChecked;
+    private int sdkVersion;                     // API level of the device, 0 until read
+
+    AdbDevice(String adbLocation, AdbClient adbClient) {
+        this.adbLocation = adbLocation;
+        this.adbClient = adbClient;
+    }
+
+    AdbClient getAdbClient() {
+        return adbClient;
+    }
+
+    /**
+     * This method halts until the device reports that the boot is completed. The device is awaited on the
+     * adb server and a single shell watches the boot property on the device.
+     *
+     * @param timeoutMillis - maximum time to wait.
+     * @return time taken for the boot to complete in milliseconds.
+     * @throws IOException          if the adb server cannot be started.
+     * @throws InterruptedException if interrupted while waiting.
+     * @throws TimeoutException     if the boot is not completed within the timeout.
+     */
+    long waitForBoot(long timeoutMillis) throws IOException, InterruptedException, TimeoutException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        startServer();
+        while (System.nanoTime() < deadline) {
+            if (!adbClient.isDeviceOnline()) {
+                Thread.sleep(RECONNECT_MILLIS);
+                continue;
+            }
+            int remaining = (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+            try (Socket socket = adbClient.openShell(WAIT_FOR_BOOT_SCRIPT, remaining);
+                 BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                         StandardCharsets.UTF_8))) {
+                String readLine;
+                while ((readLine = reader.readLine()) != null) {
+                    if (readLine.contains(BOOT_COMPLETED)) {
+                        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    }
+                }
+            } catch (SocketTimeoutException e) {
+                break;
+            } catch (IOException ignored) {
+                // the connection dropped before the boot completed, eg: adbd restarted in the device
+            }
+            Thread.sleep(RECONNECT_MILLIS);
+        }
+        throw new TimeoutException("Boot not completed within " + timeoutMillis + " ms");
+    }
+
+    /**
+     * This method checks that the device is booted and answers a shell command within the timeout, so a hung
+     * emulator is told apart from a busy one.
+     *
+     * @param timeoutMillis - maximum time to wait for the answer.
+     * @return true if the device answered that the boot is completed.
+     */
+    boolean isResponsive(int timeoutMillis) {
+        try (Socket socket = adbClient.openShell("getprop sys.boot_completed", timeoutMillis);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                     StandardCharsets.UTF_8))) {
+            String readLine = reader.readLine();
+            return readLine != null && readLine.trim().equals("1");
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * This method checks whether the APK is installed in the device with the same version code and the same
+     * signing certificates. An APK whose certificates are not known is never taken as installed.
+     *
+     * @param apk - manifest of the APK.
+     * @return true if installing the APK would change nothing.
+     * @throws IOException if the package cannot be queried.
+     */
+    boolean isInstalled(ApkManifest apk) throws IOException {
+        startServer();
+        String output = adbClient.shell("dumpsys package " + apk.getPackageName());
+        int packageStart = output.indexOf("Package [" + apk.getPackageName() + "]");
+        if (packageStart < 0) {
+            return false;
+        }
+        int versionStart = output.indexOf("versionCode=", packageStart);
+        if (versionStart < 0) {
+            return false;
+        }
+        versionStart += "versionCode=".length();
+        int versionEnd = versionStart;
+        while (versionEnd < output.length() && Character.isDigit(output.charAt(versionEnd))) {
+            versionEnd++;
+        }
+        if (versionEnd == versionStart
+                || Long.parseLong(output.substring(versionStart, versionEnd)) != apk.getVersionCode()) {
+            return false;
+        }
+        return apk.getSignatures() != null && apk.getSignatures().equals(readSignatures(output, packageStart));
+    }
+
+    /**
+     * This method reads the hashes of the certificates from the package signatures in the dumpsys output,
+     * eg: "signatures=PackageSignatures{9fbbd4d [53c7caa2]}".
+     *
+     * @return the hashes sorted and joined by commas, or null if not found.
+     */
+    private static String readSignatures(String output, int packageStart) {
+        int signaturesStart = output.indexOf("signatures=PackageSignatures{", packageStart);
+        int listStart = signaturesStart < 0 ? -1 : output.indexOf('[', signaturesStart);
+        int listEnd = listStart < 0 ? -1 : output.indexOf(']', listStart);
+        int lineEnd = signaturesStart < 0 ? -1 : output.indexOf('\n', signaturesStart);
+        if (listEnd < 0 || (lineEnd >= 0 && listEnd > lineEnd)) {
+            return null;
+        }
+        List<String> hashes = new ArrayList<>();
+        for (String hash : output.substring(listStart + 1, listEnd).split(",")) {
+            if (!hash.trim().isEmpty()) {
+                hashes.add(hash.trim());
+            }
+        }
+        Collections.sort(hashes);
+        return String.join(",", hashes);
+    }
+
+    /**
+     * This method installs the apk, replacing the installed version of the package. The apk is streamed to
+     * the package manager if the device supports it, else it is copied to the device first. If the installed
+     * version is signed with other certificates, it is uninstalled first.
+     *
+     * @param apkLocation - location of the apk file.
+     * @param pkg         - name of the package in the apk.
+     * @throws IOException if the apk cannot be copied or installed.
+     */
+    void install(String apkLocation, String pkg) throws IOException {
+        File apk = new File(apkLocation);
+        startServer();
+        String output = replace(apk);
+        if (output.contains("INSTALL_FAILED_UPDATE_INCOMPATIBLE")) {
+            System.out.println("Installed " + pkg + " is signed with other certificates, uninstalling it");
+            adbClient.shell("pm uninstall " + pkg);
+            output = replace(apk);
+        }
+        if (!output.contains("Success")) {
+            throw new IOException("Installing " + apk.getName() + " failed: " + output.trim());
+        }
+    }
+
+    private String replace(File apk) throws IOException {
+        if (getSdkVersion() >= STREAMED_INSTALL_SDK) {
+            return adbClient.execIn("cmd package install -r -d -S " + apk.length(), apk);
+        }
+        String remote = REMOTE_TEMP_FOLDER + apk.getName();
+        adbClient.push(apk, remote, 0644);
+        try {
+            return adbClient.shell("pm install -r -d " + remote);
+        } finally {
+            adbClient.shell("rm " + remote);
+        }
+    }
+
+    private synchronized int getSdkVersion() throws IOException {
+        if (sdkVersion == 0) {
+            try {
+                sdkVersion = Integer.parseInt(adbClient.shell("getprop ro.build.version.sdk").trim());
+            } catch (NumberFormatException e) {
+                sdkVersion = 1;                 // unknown, the apk is copied
+            }
+        }
+        return sdkVersion;
+    }
+
+    /**
+     * This method starts the activity of the package.
+     *
+     * @param pkg      - name of the package.
+     * @param activity - name of the activity.
+     * @throws IOException if the activity cannot be started.
+     */
+    void startActivity(String pkg, String activity) throws IOException {
+        startServer();
+        adbClient.shell("am start -n " + pkg + "/" + activity);
+    }
+
+    /**
+     * This method starts the adb server with the adb executable if it is not running.
+     *
+     * @throws IOException if the server cannot be started.
+     */
+    private synchronized void startServer() throws IOException {
+        if (serverChecked) {
+            return;
+        }
+        if (!adbClient.isServerRunning()) {
+            try {
+                new ProcessBuilder(adbLocation, "start-server").inheritIO().start().waitFor();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while starting the adb server", e);
+            }
+        }
+        serverChecked = true;
+    }
+}
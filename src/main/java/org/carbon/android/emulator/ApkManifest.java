@@ -0,0 +1,327 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * This class reads the package, the version and the launchable activity of an APK from the binary
+ * AndroidManifest.xml in the APK, without aapt, and the signing certificates of the APK.
+ */
+class ApkManifest {
+    private static final String MANIFEST_ENTRY = "AndroidManifest.xml";
+    private static final int MAX_MANIFEST_SIZE = 16 * 1024 * 1024;
+
+    // chunk types of the binary XML format
+    private static final int RES_XML_TYPE = 0x0003;
+    private static final int RES_STRING_POOL_TYPE = 0x0001;
+    private static final int RES_XML_RESOURCE_MAP_TYPE = 0x0180;
+    private static final int RES_XML_START_ELEMENT_TYPE = 0x0102;
+    private static final int RES_XML_END_ELEMENT_TYPE = 0x0103;
+    private static final int UTF8_FLAG = 0x100;
+
+    // types of the attribute values
+    private static final int TYPE_STRING = 0x03;
+    private static final int TYPE_FIRST_INT = 0x10;
+    private static final int TYPE_LAST_INT = 0x1f;
+
+    // resource ids of the attributes, used when the attribute names are stripped from the manifest
+    private static final int ATTR_NAME = 0x01010003;
+    private static final int ATTR_VERSION_CODE = 0x0101021b;
+    private static final int ATTR_VERSION_NAME = 0x0101021c;
+
+    private String packageName;
+    private long versionCode;
+    private String versionName;
+    private String launchableActivity;
+    private String signatures;                  // hashes of the signing certificates, null if not known
+
+    ApkManifest(String packageName, long versionCode, String versionName, String launchableActivity,
+                String signatures) {
+        this.packageName = packageName;
+        this.versionCode = versionCode;
+        this.versionName = versionName;
+        this.launchableActivity = launchableActivity;
+        this.signatures = signatures;
+    }
+
+    /**
+     * This method reads the manifest of the APK.
+     *
+     * @param apk - the APK file.
+     * @return the manifest.
+     * @throws IOException if the APK cannot be read or has no valid manifest.
+     */
+    static ApkManifest read(File apk) throws IOException {
+        byte[] data;
+        String signatures;
+        try (ZipFile zip = new ZipFile(apk)) {
+            ZipEntry entry = zip.getEntry(MANIFEST_ENTRY);
+            if (entry == null) {
+                throw new IOException(apk.getName() + " has no " + MANIFEST_ENTRY);
+            }
+            try (InputStream in = zip.getInputStream(entry)) {
+                data = readFully(in);
+            }
+            signatures = readSignatures(zip);
+        }
+        ApkManifest manifest;
+        try {
+            manifest = parse(ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN));
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid " + MANIFEST_ENTRY + " in " + apk.getName(), e);
+        }
+        manifest.signatures = signatures;
+        return manifest;
+    }
+
+    /**
+     * This method hashes the certificates of the JAR signature of the APK the way the package manager shows
+     * them in dumpsys, the hex of the hash code of each encoded certificate, sorted and joined by commas.
+     *
+     * @return the hashes, or null if the APK has no JAR signature, eg: it is signed with the v2 scheme only.
+     */
+    private static String readSignatures(ZipFile zip) throws IOException {
+        List<String> hashes = new ArrayList<>();
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            String name = entry.getName().toUpperCase();
+            if (!name.startsWith("META-INF/") || name.indexOf('/', "META-INF/".length()) >= 0
+                    || !(name.endsWith(".RSA") || name.endsWith(".DSA") || name.endsWith(".EC"))) {
+                continue;
+            }
+            try (InputStream in = zip.getInputStream(entry)) {
+                for (Certificate certificate : CertificateFactory.getInstance("X.509").generateCertificates(in)) {
+                    hashes.add(Integer.toHexString(Arrays.hashCode(certificate.getEncoded())));
+                }
+            } catch (CertificateException e) {
+                throw new IOException("Invalid signature " + entry.getName(), e);
+            }
+            break;                              // the package manager reads the first signer only
+        }
+        if (hashes.isEmpty()) {
+            return null;
+        }
+        Collections.sort(hashes);
+        return String.join(",", hashes);
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] data = new byte[8192];
+        int read;
+        while ((read = in.read(data)) != -1) {
+            out.write(data, 0, read);
+            if (out.size() > MAX_MANIFEST_SIZE) {
+                throw new IOException(MANIFEST_ENTRY + " is too large");
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * This method walks the chunks of the binary XML, keeping the attributes of the manifest element and the
+     * first activity, or activity alias, with an intent filter of the MAIN action and the LAUNCHER category.
+     */
+    private static ApkManifest parse(ByteBuffer buffer) throws IOException {
+        if ((buffer.getShort(0) & 0xFFFF) != RES_XML_TYPE) {
+            throw new IOException("Not a binary XML file");
+        }
+        String[] strings = new String[0];
+        int[] resourceIds = new int[0];
+        String packageName = null;
+        long versionCode = 0;
+        String versionName = null;
+        String launchableActivity = null;
+        String activity = null;                 // the activity being read
+        boolean inIntentFilter = false;
+        boolean main = false;
+        boolean launcher = false;
+
+        int offset = buffer.getShort(2) & 0xFFFF;
+        while (offset + 8 <= buffer.limit()) {
+            int type = buffer.getShort(offset) & 0xFFFF;
+            int headerSize = buffer.getShort(offset + 2) & 0xFFFF;
+            int size = buffer.getInt(offset + 4);
+            if (size < 8 || offset + size > buffer.limit()) {
+                throw new IOException("Invalid chunk at " + offset);
+            }
+
+            if (type == RES_STRING_POOL_TYPE) {
+                strings = readStringPool(buffer, offset);
+            } else if (type == RES_XML_RESOURCE_MAP_TYPE) {
+                resourceIds = new int[(size - headerSize) / 4];
+                for (int i = 0; i < resourceIds.length; i++) {
+                    resourceIds[i] = buffer.getInt(offset + headerSize + 4 * i);
+                }
+            } else if (type == RES_XML_START_ELEMENT_TYPE) {
+                int element = offset + headerSize;
+                String name = string(strings, buffer.getInt(element + 4));
+                int attributeStart = buffer.getShort(element + 8) & 0xFFFF;
+                int attributeSize = buffer.getShort(element + 10) & 0xFFFF;
+                int attributeCount = buffer.getShort(element + 12) & 0xFFFF;
+
+                String androidName = null;
+                for (int i = 0; i < attributeCount; i++) {
+                    int attribute = element + attributeStart + i * attributeSize;
+                    int nameIndex = buffer.getInt(attribute + 4);
+                    int resourceId = nameIndex >= 0 && nameIndex < resourceIds.length ? resourceIds[nameIndex] : 0;
+                    String attributeName = string(strings, nameIndex);
+                    int dataType = buffer.get(attribute + 15) & 0xFF;
+                    int data = buffer.getInt(attribute + 16);
+                    String value = dataType == TYPE_STRING ? string(strings, data)
+                            : string(strings, buffer.getInt(attribute + 8));
+
+                    if (resourceId == ATTR_NAME || (resourceId == 0 && "name".equals(attributeName))) {
+                        androidName = value;
+                    } else if ("manifest".equals(name) && "package".equals(attributeName)) {
+                        packageName = value;
+                    } else if ("manifest".equals(name) && (resourceId == ATTR_VERSION_CODE
+                            || (resourceId == 0 && "versionCode".equals(attributeName)))) {
+                        versionCode = dataType >= TYPE_FIRST_INT && dataType <= TYPE_LAST_INT ? data & 0xFFFFFFFFL
+                                : Long.parseLong(value);
+                    } else if ("manifest".equals(name) && (resourceId == ATTR_VERSION_NAME
+                            || (resourceId == 0 && "versionName".equals(attributeName)))) {
+                        versionName = value;
+                    }
+                }
+
+                if ("activity".equals(name) || "activity-alias".equals(name)) {
+                    activity = androidName;
+                } else if ("intent-filter".equals(name)) {
+                    inIntentFilter = true;
+                    main = false;
+                    launcher = false;
+                } else if (inIntentFilter && "action".equals(name)) {
+                    main |= "android.intent.action.MAIN".equals(androidName);
+                } else if (inIntentFilter && "category".equals(name)) {
+                    launcher |= "android.intent.category.LAUNCHER".equals(androidName);
+                }
+            } else if (type == RES_XML_END_ELEMENT_TYPE) {
+                String name = string(strings, buffer.getInt(offset + headerSize + 4));
+                if ("intent-filter".equals(name)) {
+                    if (main && launcher && activity != null && launchableActivity == null) {
+                        launchableActivity = activity;
+                    }
+                    inIntentFilter = false;
+                } else if ("activity".equals(name) || "activity-alias".equals(name)) {
+                    activity = null;
+                }
+            }
+            offset += size;
+        }
+
+        if (packageName == null) {
+            throw new IOException("No package in the manifest");
+        }
+        return new ApkManifest(packageName, versionCode, versionName, qualify(packageName, launchableActivity),
+                null);
+    }
+
+    /**
+     * This method gives the full class name of an activity declared relative to the package, eg: .MainActivity.
+     */
+    private static String qualify(String packageName, String activity) {
+        if (activity == null) {
+            return null;
+        } else if (activity.startsWith(".")) {
+            return packageName + activity;
+        } else if (activity.indexOf('.') < 0) {
+            return packageName + "." + activity;
+        }
+        return activity;
+    }
+
+    private static String string(String[] strings, int index) {
+        return index >= 0 && index < strings.length ? strings[index] : null;
+    }
+
+    /**
+     * This method decodes the strings of a string pool chunk, which are either in UTF-8 or in UTF-16.
+     */
+    private static String[] readStringPool(ByteBuffer buffer, int chunk) {
+        int count = buffer.getInt(chunk + 8);
+        boolean utf8 = (buffer.getInt(chunk + 16) & UTF8_FLAG) != 0;
+        int stringsStart = chunk + buffer.getInt(chunk + 20);
+        int offsets = chunk + (buffer.getShort(chunk + 2) & 0xFFFF);
+
+        String[] strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            int position = stringsStart + buffer.getInt(offsets + 4 * i);
+            if (utf8) {
+                position += (buffer.get(position) & 0x80) != 0 ? 2 : 1;         // length in UTF-16 units
+                int length = buffer.get(position) & 0xFF;
+                if ((length & 0x80) != 0) {
+                    length = ((length & 0x7F) << 8) | (buffer.get(position + 1) & 0xFF);
+                    position += 2;
+                } else {
+                    position++;
+                }
+                strings[i] = new String(buffer.array(), position, length, StandardCharsets.UTF_8);
+            } else {
+                int length = buffer.getShort(position) & 0xFFFF;
+                if ((length & 0x8000) != 0) {
+                    length = ((length & 0x7FFF) << 16) | (buffer.getShort(position + 2) & 0xFFFF);
+                    position += 4;
+                } else {
+                    position += 2;
+                }
+                strings[i] = new String(buffer.array(), position, length * 2, StandardCharsets.UTF_16LE);
+            }
+        }
+        return strings;
+    }
+
+    String getPackageName() {
+        return packageName;
+    }
+
+    long getVersionCode() {
+        return versionCode;
+    }
+
+    String getVersionName() {
+        return versionName;
+    }
+
+    String getLaunchableActivity() {
+        return launchableActivity;
+    }
+
+    String getSignatures() {
+        return signatures;
+    }
+}
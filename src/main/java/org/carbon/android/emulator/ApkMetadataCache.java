@@ -0,0 +1,129 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * This class keeps the manifests read from the APKs in a file, keyed by the SHA-256 of each APK, so an APK
+ * is parsed only the first time it is seen.
+ */
+class ApkMetadataCache {
+    private static final String PACKAGE_SUFFIX = ".package";
+    private static final String VERSION_CODE_SUFFIX = ".versionCode";
+    private static final String VERSION_NAME_SUFFIX = ".versionName";
+    private static final String ACTIVITY_SUFFIX = ".activity";
+    private static final String SIGNATURES_SUFFIX = ".signatures";
+
+    private File file;
+    private Properties metadata = new Properties();
+
+    ApkMetadataCache(File file) {
+        this.file = file;
+        if (file.isFile()) {
+            try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+                metadata.load(reader);
+            } catch (IOException e) {
+                metadata.clear();               // the APKs are parsed again
+            }
+        }
+    }
+
+    /**
+     * This method gives the manifest of the APK from the cache, reading and caching it if the APK is new.
+     *
+     * @param apk - the APK file.
+     * @return the manifest.
+     * @throws IOException if the APK cannot be read.
+     */
+    synchronized ApkManifest get(File apk) throws IOException {
+        String sha256 = sha256(apk);
+        String packageName = metadata.getProperty(sha256 + PACKAGE_SUFFIX);
+        String signatures = metadata.getProperty(sha256 + SIGNATURES_SUFFIX);       // empty if not signed
+        if (packageName != null && signatures != null) {
+            long versionCode = Long.parseLong(metadata.getProperty(sha256 + VERSION_CODE_SUFFIX, "0"));
+            return new ApkManifest(packageName, versionCode, metadata.getProperty(sha256 + VERSION_NAME_SUFFIX),
+                    metadata.getProperty(sha256 + ACTIVITY_SUFFIX), signatures.isEmpty() ? null : signatures);
+        }
+
+        long start = System.nanoTime();
+        ApkManifest manifest = ApkManifest.read(apk);
+        System.out.println("Read the manifest of " + apk.getName() + " in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        metadata.setProperty(sha256 + PACKAGE_SUFFIX, manifest.getPackageName());
+        metadata.setProperty(sha256 + VERSION_CODE_SUFFIX, String.valueOf(manifest.getVersionCode()));
+        if (manifest.getVersionName() != null) {
+            metadata.setProperty(sha256 + VERSION_NAME_SUFFIX, manifest.getVersionName());
+        }
+        if (manifest.getLaunchableActivity() != null) {
+            metadata.setProperty(sha256 + ACTIVITY_SUFFIX, manifest.getLaunchableActivity());
+        }
+        metadata.setProperty(sha256 + SIGNATURES_SUFFIX,
+                manifest.getSignatures() == null ? "" : manifest.getSignatures());
+        try {
+            store();
+        } catch (IOException e) {
+            System.out.println("Unable to write " + file);
+        }
+        return manifest;
+    }
+
+    private void store() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+            metadata.store(writer, "WSO2 Android TryIt APK metadata");
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static String sha256(File apk) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not available", e);
+        }
+        try (InputStream in = new FileInputStream(apk)) {
+            byte[] data = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(data)) != -1) {
+                digest.update(data, 0, read);
+            }
+        }
+        return ArtifactDownloader.toHex(digest.digest());
+    }
+}
@@ -0,0 +1,283 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class keeps downloaded artifacts in a content-addressed cache shared by all the working
+ * directories of the host. Artifacts are stored by SHA-256 and looked up by URL, and the least
+ * recently used artifacts are evicted when the cache grows over its size limit. A cached artifact is
+ * checked against its SHA-256 before it is used.
+ */
+class ArtifactCache {
+    private static final String INDEX_FILE = "index";
+    private static final String LOCK_FILE = "lock";
+    private static final String OBJECTS_FOLDER = "objects";
+
+    private File root;
+    private long maxBytes;
+    private boolean offline;                    // serve only from the cache, never download
+
+    ArtifactCache(File root, long maxBytes, boolean offline) {
+        this.root = root;
+        this.maxBytes = maxBytes;
+        this.offline = offline;
+        //noinspection ResultOfMethodCallIgnored
+        new File(root, OBJECTS_FOLDER).mkdirs();
+    }
+
+    boolean isOffline() {
+        return offline;
+    }
+
+    /**
+     * This method finds the cached artifact of the URL, checks it against its SHA-256 and marks it as
+     * recently used. An artifact which does not match its SHA-256 is removed from the cache.
+     *
+     * @param url - the URL the artifact was downloaded from.
+     * @return the cached file, or null if the URL is not cached or the cached artifact is corrupted.
+     * @throws IOException if the index or the artifact cannot be read.
+     */
+    File lookup(String url) throws IOException {
+        String sha256;
+        synchronized (this) {
+            try (RandomAccessFile lockFile = new RandomAccessFile(new File(root, LOCK_FILE), "rw")) {
+                lockFile.getChannel().lock();   // released when the file is closed
+                Map<String, IndexEntry> index = readIndex();
+                IndexEntry entry = index.get(url);
+                if (entry == null) {
+                    return null;
+                }
+                File object = objectFile(entry.sha256);
+                if (!object.isFile() || object.length() != entry.size) {
+                    index.remove(url);
+                    writeIndex(index);
+                    return null;
+                }
+                sha256 = entry.sha256;
+            }
+        }
+
+        // hashed outside the lock, as a system image takes seconds
+        File object = objectFile(sha256);
+        boolean intact = sha256.equals(hash(object));
+        synchronized (this) {
+            try (RandomAccessFile lockFile = new RandomAccessFile(new File(root, LOCK_FILE), "rw")) {
+                lockFile.getChannel().lock();
+                Map<String, IndexEntry> index = readIndex();
+                if (!intact) {
+                    System.out.println("Cached " + sha256 + " is corrupted, removing it from the artifact cache");
+                    Files.deleteIfExists(object.toPath());
+                    index.values().removeIf(entry -> entry.sha256.equals(sha256));
+                    writeIndex(index);
+                    return null;
+                }
+                IndexEntry entry = index.get(url);
+                if (entry == null || !entry.sha256.equals(sha256) || !object.isFile()) {
+                    return null;                // evicted or replaced while hashing
+                }
+                entry.lastAccess = System.currentTimeMillis();
+                writeIndex(index);
+                return object;
+            }
+        }
+    }
+
+    /**
+     * This method adds the downloaded artifact to the cache and evicts the least recently used artifacts
+     * if the cache is over its size limit.
+     *
+     * @param url    - the URL the artifact was downloaded from.
+     * @param file   - the downloaded artifact.
+     * @param sha256 - hex encoded SHA-256 of the artifact.
+     * @throws IOException if the artifact cannot be added.
+     */
+    synchronized void store(String url, File file, String sha256) throws IOException {
+        try (RandomAccessFile lockFile = new RandomAccessFile(new File(root, LOCK_FILE), "rw")) {
+            lockFile.getChannel().lock();       // released when the file is closed
+            File object = objectFile(sha256);
+            if (!object.isFile()) {
+                File temp = new File(object.getPath() + ".tmp");
+                link(file, temp);
+                Files.move(temp.toPath(), object.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            Map<String, IndexEntry> index = readIndex();
+            IndexEntry entry = new IndexEntry();
+            entry.sha256 = sha256;
+            entry.size = object.length();
+            entry.lastAccess = System.currentTimeMillis();
+            index.put(url, entry);
+            evict(index, sha256);
+            writeIndex(index);
+        }
+    }
+
+    /**
+     * This method places the cached artifact at the target location, as a hard link when possible.
+     *
+     * @param cached - the cached artifact.
+     * @param target - the location to place it.
+     * @throws IOException if the artifact cannot be linked or copied.
+     */
+    void copyTo(File cached, File target) throws IOException {
+        Files.deleteIfExists(target.toPath());
+        link(cached, target);
+    }
+
+    /**
+     * This method removes the least recently used artifacts until the cache fits its size limit.
+     *
+     * @param index - the index to evict from.
+     * @param keep  - SHA-256 of the artifact which was just stored.
+     */
+    private void evict(Map<String, IndexEntry> index, String keep) throws IOException {
+        Map<String, Long> objects = new LinkedHashMap<>();   // sha256 to last access
+        long total = 0;
+
+        for (IndexEntry entry : index.values()) {
+            Long lastAccess = objects.get(entry.sha256);
+            if (lastAccess == null) {
+                total += entry.size;
+            }
+            objects.put(entry.sha256, Math.max(entry.lastAccess, lastAccess == null ? 0 : lastAccess));
+        }
+        List<Map.Entry<String, Long>> byAccess = new ArrayList<>(objects.entrySet());
+        byAccess.sort(Map.Entry.comparingByValue());
+
+        for (Map.Entry<String, Long> object : byAccess) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (object.getKey().equals(keep)) {
+                continue;
+            }
+            File file = objectFile(object.getKey());
+            total -= file.length();
+            Files.deleteIfExists(file.toPath());
+            index.values().removeIf(entry -> entry.sha256.equals(object.getKey()));
+            System.out.println("Evicted " + object.getKey() + " from the artifact cache");
+        }
+    }
+
+    /**
+     * This method computes the SHA-256 of the file.
+     *
+     * @return the hex encoded SHA-256.
+     */
+    private static String hash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not available", e);
+        }
+        byte[] data = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(data)) != -1) {
+                digest.update(data, 0, read);
+            }
+        }
+        return ArtifactDownloader.toHex(digest.digest());
+    }
+
+    private File objectFile(String sha256) {
+        return new File(root, OBJECTS_FOLDER + File.separator + sha256);
+    }
+
+    private void link(File source, File target) throws IOException {
+        try {
+            Files.createLink(target.toPath(), source.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            // different file system, fall back to a copy
+            Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * This method reads the index, one artifact per line as "sha256 size lastAccess url".
+     */
+    private Map<String, IndexEntry> readIndex() throws IOException {
+        Map<String, IndexEntry> index = new LinkedHashMap<>();
+        File indexFile = new File(root, INDEX_FILE);
+
+        if (!indexFile.isFile()) {
+            return index;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile),
+                StandardCharsets.UTF_8))) {
+            String readLine;
+            while ((readLine = reader.readLine()) != null) {
+                String[] values = readLine.split(" ", 4);
+                if (values.length != 4) {
+                    continue;
+                }
+                IndexEntry entry = new IndexEntry();
+                try {
+                    entry.sha256 = values[0];
+                    entry.size = Long.parseLong(values[1]);
+                    entry.lastAccess = Long.parseLong(values[2]);
+                } catch (NumberFormatException ignored) {
+                    continue;
+                }
+                index.put(values[3], entry);
+            }
+        }
+        return index;
+    }
+
+    private void writeIndex(Map<String, IndexEntry> index) throws IOException {
+        File temp = new File(root, INDEX_FILE + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, IndexEntry> entry : index.entrySet()) {
+                writer.write(entry.getValue().sha256 + " " + entry.getValue().size + " "
+                        + entry.getValue().lastAccess + " " + entry.getKey() + "\n");
+            }
+        }
+        Files.move(temp.toPath(), new File(root, INDEX_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * This class holds the cached details of a URL.
+     */
+    private static class IndexEntry {
+        private String sha256;
+        private long size;
+        private long lastAccess;
+    }
+}
@@ -0,0 +1,527 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class downloads an artifact over several HTTP connections using Range requests. Progress is
+ * kept next to the partial file so that an interrupted download resumes from where it stopped, as long
+ * as the ETag or Last-Modified of the artifact on the server is the same.
+ */
+class ArtifactDownloader {
+    private static final String PART_EXTENSION = ".part";
+    private static final String STATE_EXTENSION = ".state";
+    private static final int BUFFER = 64 * 1024;
+    private static final long MIN_SEGMENT_SIZE = 4 * 1024 * 1024;
+    private static final long STATE_SAVE_INTERVAL = 4 * 1024 * 1024;
+    private static final int MAX_REDIRECTS = 5;
+    private static final int TIMEOUT = 30000;
+
+    private int connections;                    // maximum number of parallel connections
+    private int maxRetries;                     // retries per segment before giving up
+    private long backoffMillis;                 // initial wait before a retry, doubled on each retry
+
+    ArtifactDownloader(int connections, int maxRetries, long backoffMillis) {
+        this.connections = Math.max(1, connections);
+        this.maxRetries = Math.max(0, maxRetries);
+        this.backoffMillis = backoffMillis;
+    }
+
+    /**
+     * This method downloads the URL to the file, resuming a previous partial download if available.
+     * The SHA-256 of the artifact is computed while it is being downloaded.
+     *
+     * @param path     - the URL to download from.
+     * @param fileName - the file to download to.
+     * @return hex encoded SHA-256 of the artifact.
+     * @throws IOException if the download fails after all the retries.
+     */
+    String download(String path, String fileName) throws IOException {
+        File part = new File(fileName + PART_EXTENSION);
+        File state = new File(fileName + PART_EXTENSION + STATE_EXTENSION);
+        long start = System.nanoTime();
+        URL url = resolve(new URL(path));
+        long transferred = 0;
+        MessageDigest digest;
+
+        for (int restarts = 0; ; restarts++) {
+            // a new digest for each attempt, as the hashing of a failed attempt may still be running
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException("SHA-256 is not available", e);
+            }
+            Probe probe = probe(url);
+            try {
+                if (probe.length > 0) {
+                    long[][] segments = loadState(state, probe);
+                    if (segments == null || !part.exists()) {
+                        segments = split(probe.length);
+                    }
+                    transferred += downloadSegments(url, part, state, segments, probe, digest);
+                } else {
+                    transferred += downloadStream(url, part, digest);
+                }
+                break;
+            } catch (ArtifactChangedException e) {
+                if (restarts >= maxRetries) {
+                    throw e;
+                }
+                System.out.println(new File(fileName).getName() + " changed on the server, downloading it again");
+                //noinspection ResultOfMethodCallIgnored
+                state.delete();
+                //noinspection ResultOfMethodCallIgnored
+                part.delete();
+            }
+        }
+        Files.move(part.toPath(), new File(fileName).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        //noinspection ResultOfMethodCallIgnored
+        state.delete();
+
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        System.out.println(String.format("Downloaded %s: %.1f MB in %.1f s (%.2f MB/s)", new File(fileName).getName(),
+                transferred / 1048576.0, seconds, transferred / 1048576.0 / seconds));
+        return toHex(digest.digest());
+    }
+
+    /**
+     * This method encodes the bytes as lower case hex.
+     *
+     * @param bytes - the bytes to encode.
+     * @return the hex string.
+     */
+    static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * This method follows the redirects of the URL, including redirects between http and https.
+     *
+     * @param url - the URL to resolve.
+     * @return the final URL.
+     * @throws IOException if the connection fails.
+     */
+    private URL resolve(URL url) throws IOException {
+        for (int i = 0; i < MAX_REDIRECTS; i++) {
+            URLConnection connection = url.openConnection();
+            if (!(connection instanceof HttpURLConnection)) {
+                return url;
+            }
+            HttpURLConnection http = (HttpURLConnection) connection;
+            http.setInstanceFollowRedirects(false);
+            http.setRequestMethod("HEAD");
+            http.setConnectTimeout(TIMEOUT);
+            http.setReadTimeout(TIMEOUT);
+            int code = http.getResponseCode();
+            String location = http.getHeaderField("Location");
+            http.disconnect();
+            if (code < 300 || code >= 400 || location == null) {
+                return url;
+            }
+            url = new URL(url, location);
+        }
+        return url;
+    }
+
+    /**
+     * This method checks whether the server supports Range requests for the URL, and reads the validator
+     * which tells whether the artifact changed since a previous download.
+     *
+     * @param url - the resolved URL.
+     * @return the probe, with a length of -1 if ranges are not supported.
+     * @throws IOException if the connection fails.
+     */
+    private Probe probe(URL url) throws IOException {
+        Probe probe = new Probe();
+        URLConnection connection = url.openConnection();
+        if (!(connection instanceof HttpURLConnection)) {
+            return probe;
+        }
+        HttpURLConnection http = (HttpURLConnection) connection;
+        http.setConnectTimeout(TIMEOUT);
+        http.setReadTimeout(TIMEOUT);
+        http.setRequestProperty("Range", "bytes=0-0");
+        try {
+            String contentRange = http.getHeaderField("Content-Range");
+            if (http.getResponseCode() != HttpURLConnection.HTTP_PARTIAL || contentRange == null
+                    || contentRange.indexOf('/') < 0) {
+                return probe;
+            }
+            // If-Range takes a strong ETag only, else the Last-Modified date
+            String eTag = http.getHeaderField("ETag");
+            probe.validator = eTag != null && !eTag.startsWith("W/") ? eTag : http.getHeaderField("Last-Modified");
+            String total = contentRange.substring(contentRange.indexOf('/') + 1).trim();
+            probe.length = "*".equals(total) ? -1 : Long.parseLong(total);
+            return probe;
+        } catch (NumberFormatException e) {
+            probe.length = -1;
+            return probe;
+        } finally {
+            http.disconnect();
+        }
+    }
+
+    /**
+     * This method splits the artifact into one segment per connection.
+     *
+     * @param length - length of the artifact.
+     * @return segments as {start, end (inclusive), downloaded bytes}.
+     */
+    private long[][] split(long length) {
+        int count = (int) Math.max(1, Math.min(connections, length / MIN_SEGMENT_SIZE));
+        long size = length / count;
+        long[][] segments = new long[count][];
+
+        for (int i = 0; i < count; i++) {
+            long end = (i == count - 1) ? length - 1 : (i + 1) * size - 1;
+            segments[i] = new long[]{i * size, end, 0};
+        }
+        return segments;
+    }
+
+    /**
+     * This method downloads the segments in parallel into the partial file. The digest follows the
+     * contiguous downloaded prefix of the file, so it is complete as soon as the last segment is.
+     *
+     * @param url      - the resolved URL.
+     * @param part     - the partial file.
+     * @param state    - the file which keeps the progress of each segment.
+     * @param segments - the segments to download.
+     * @param probe    - length and validator of the artifact.
+     * @param digest   - the digest to update with the content of the artifact.
+     * @return number of bytes transferred in this run.
+     * @throws IOException if a segment fails after all the retries, or the artifact changed on the server.
+     */
+    private long downloadSegments(final URL url, File part, final File state, final long[][] segments,
+                                  final Probe probe, final MessageDigest digest) throws IOException {
+        final long length = probe.length;
+        final AtomicLongArray progress = new AtomicLongArray(segments.length);
+        long resumed = 0;
+
+        for (int i = 0; i < segments.length; i++) {
+            progress.set(i, segments[i][2]);
+            resumed += segments[i][2];
+        }
+        if (resumed > 0) {
+            System.out.println(String.format("Resuming %s from %.1f MB", part.getName(), resumed / 1048576.0));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(segments.length + 1);
+        try (RandomAccessFile file = new RandomAccessFile(part, "rw")) {
+            file.setLength(length);
+            final FileChannel channel = file.getChannel();
+            List<Future<Void>> futures = new ArrayList<>();
+
+            for (int i = 0; i < segments.length; i++) {
+                final int index = i;
+                futures.add(pool.submit(() -> {
+                    downloadSegment(url, channel, segments, index, progress, state, probe.validator);
+                    return null;
+                }));
+            }
+            Future<Void> hashing = pool.submit(() -> {
+                hashPrefix(channel, segments, progress, length, digest);
+                return null;
+            });
+            IOException failure = null;
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // a change of the artifact makes the whole download start again, so it wins
+                    if (failure == null || e.getCause() instanceof ArtifactChangedException) {
+                        failure = e.getCause() instanceof IOException ? (IOException) e.getCause()
+                                : new IOException(e.getCause());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Download interrupted", e);
+                }
+            }
+            if (failure != null) {
+                if (!(failure instanceof ArtifactChangedException)) {
+                    saveState(state, segments, progress, probe.validator);
+                }
+                throw failure;
+            }
+            try {
+                hashing.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Download interrupted", e);
+            }
+            channel.force(false);
+        } finally {
+            pool.shutdownNow();
+        }
+        long total = 0;
+        for (int i = 0; i < segments.length; i++) {
+            total += progress.get(i);
+        }
+        return total - resumed;
+    }
+
+    /**
+     * This method downloads the remaining bytes of a segment, retrying with backoff on failure. The ranges are
+     * asked for if the artifact still has the validator, so a changed artifact is answered in full and is not
+     * spliced into the downloaded bytes.
+     */
+    private void downloadSegment(URL url, FileChannel channel, long[][] segments, int index,
+                                 AtomicLongArray progress, File state, String validator)
+            throws IOException, InterruptedException {
+        long start = segments[index][0];
+        long end = segments[index][1];
+        int attempt = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+
+        while (start + progress.get(index) <= end) {
+            HttpURLConnection http = null;
+            try {
+                http = (HttpURLConnection) url.openConnection();
+                http.setConnectTimeout(TIMEOUT);
+                http.setReadTimeout(TIMEOUT);
+                http.setRequestProperty("Range", "bytes=" + (start + progress.get(index)) + "-" + end);
+                if (validator != null) {
+                    http.setRequestProperty("If-Range", validator);
+                }
+                if (http.getResponseCode() == HttpURLConnection.HTTP_OK && validator != null) {
+                    throw new ArtifactChangedException();
+                }
+                if (http.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new IOException("Range request rejected with HTTP " + http.getResponseCode());
+                }
+                long unsaved = 0;
+                try (InputStream in = http.getInputStream()) {
+                    int read;
+                    while (start + progress.get(index) <= end
+                            && (read = in.read(buffer.array(), 0, (int) Math.min(BUFFER,
+                            end - start - progress.get(index) + 1))) != -1) {
+                        buffer.position(0).limit(read);
+                        long position = start + progress.get(index);
+                        while (buffer.hasRemaining()) {
+                            position += channel.write(buffer, position);
+                        }
+                        progress.addAndGet(index, read);
+                        unsaved += read;
+                        if (unsaved >= STATE_SAVE_INTERVAL) {
+                            saveState(state, segments, progress, validator);
+                            unsaved = 0;
+                        }
+                    }
+                }
+                if (start + progress.get(index) <= end) {
+                    throw new IOException("Connection closed before the end of segment " + index);
+                }
+            } catch (IOException e) {
+                if (e instanceof ArtifactChangedException || attempt++ >= maxRetries) {
+                    throw e;
+                }
+                long wait = backoffMillis << Math.min(attempt - 1, 10);
+                System.out.println("Segment " + index + " failed (" + e.getMessage() + "), retrying in "
+                        + wait + " ms");
+                Thread.sleep(wait);
+            } finally {
+                if (http != null) {
+                    http.disconnect();
+                }
+            }
+        }
+    }
+
+    /**
+     * This method reads the downloaded prefix of the partial file into the digest as the segments grow,
+     * while the bytes are still in the page cache.
+     */
+    private void hashPrefix(FileChannel channel, long[][] segments, AtomicLongArray progress, long length,
+                            MessageDigest digest) throws IOException, InterruptedException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+        long hashed = 0;
+
+        while (hashed < length) {
+            long available = length;
+            for (int i = 0; i < segments.length; i++) {
+                if (segments[i][0] + progress.get(i) <= segments[i][1]) {
+                    available = segments[i][0] + progress.get(i);
+                    break;
+                }
+            }
+            if (available <= hashed) {
+                Thread.sleep(5);
+                continue;
+            }
+            buffer.clear();
+            buffer.limit((int) Math.min(BUFFER, available - hashed));
+            int read = channel.read(buffer, hashed);
+            if (read <= 0) {
+                throw new IOException("Unable to read back the downloaded bytes");
+            }
+            buffer.flip();
+            digest.update(buffer);
+            hashed += read;
+        }
+    }
+
+    /**
+     * This method downloads the URL on a single connection when the server does not support ranges.
+     *
+     * @param url    - the resolved URL.
+     * @param part   - the partial file.
+     * @param digest - the digest to update with the content of the artifact.
+     * @return number of bytes transferred.
+     * @throws IOException if the download fails after all the retries.
+     */
+    private long downloadStream(URL url, File part, MessageDigest digest) throws IOException {
+        int attempt = 0;
+        byte[] data = new byte[BUFFER];
+
+        while (true) {
+            long transferred = 0;
+            digest.reset();
+            try (InputStream in = url.openStream(); FileOutputStream out = new FileOutputStream(part)) {
+                int read;
+                while ((read = in.read(data)) != -1) {
+                    out.write(data, 0, read);
+                    digest.update(data, 0, read);
+                    transferred += read;
+                }
+                return transferred;
+            } catch (IOException e) {
+                if (attempt++ >= maxRetries) {
+                    //noinspection ResultOfMethodCallIgnored
+                    part.delete();
+                    throw e;
+                }
+                long wait = backoffMillis << Math.min(attempt - 1, 10);
+                System.out.println("Download failed (" + e.getMessage() + "), retrying in " + wait + " ms");
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Download interrupted", ie);
+                }
+            }
+        }
+    }
+
+    /**
+     * This method writes the progress of each segment and the validator of the artifact, so that the download
+     * can be resumed.
+     */
+    private synchronized void saveState(File state, long[][] segments, AtomicLongArray progress, String validator) {
+        File temp = new File(state.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+            writer.write(segments[segments.length - 1][1] + 1 + (validator == null ? "" : " " + validator) + "\n");
+            for (int i = 0; i < segments.length; i++) {
+                writer.write(segments[i][0] + " " + segments[i][1] + " " + progress.get(i) + "\n");
+            }
+        } catch (IOException e) {
+            System.out.println("Unable to save the download progress of " + state.getName());
+            return;
+        }
+        try {
+            Files.move(temp.toPath(), state.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.out.println("Unable to save the download progress of " + state.getName());
+        }
+    }
+
+    /**
+     * This method reads the progress of a previous download. A download is resumed only if the artifact on the
+     * server has the same length and validator, as an artifact without a validator may have changed unseen.
+     *
+     * @param state - the file which keeps the progress of each segment.
+     * @param probe - length and validator of the artifact on the server.
+     * @return the segments, or null if there is no usable state for this artifact.
+     */
+    private long[][] loadState(File state, Probe probe) {
+        if (!state.isFile() || probe.validator == null) {
+            return null;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(state),
+                StandardCharsets.UTF_8))) {
+            String[] header = reader.readLine().trim().split(" ", 2);
+            if (Long.parseLong(header[0]) != probe.length || header.length < 2
+                    || !header[1].equals(probe.validator)) {
+                return null;
+            }
+            List<long[]> segments = new ArrayList<>();
+            String readLine;
+            while ((readLine = reader.readLine()) != null) {
+                String[] values = readLine.trim().split(" ");
+                segments.add(new long[]{Long.parseLong(values[0]), Long.parseLong(values[1]),
+                        Long.parseLong(values[2])});
+            }
+            return segments.isEmpty() ? null : segments.toArray(new long[segments.size()][]);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * This class has the length and the validator of an artifact on the server.
+     */
+    private static class Probe {
+        private long length = -1;               // -1 if ranges are not supported
+        private String validator;               // strong ETag or Last-Modified, null if the server gives none
+    }
+
+    /**
+     * This exception tells that the artifact changed on the server since the download started.
+     */
+    private static class ArtifactChangedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private ArtifactChangedException() {
+            super("Artifact changed on the server");
+        }
+    }
+}
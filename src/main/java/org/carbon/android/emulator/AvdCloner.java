@@ -0,0 +1,230 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class creates AVDs as clones of a golden AVD. The images the emulator only reads are hard linked,
+ * the images it writes are copied, as reflinks where the file system supports them, and the ini files
+ * are rewritten with the name and the location of the clone. The golden AVD should not be running.
+ */
+class AvdCloner {
+    private static final String INI_EXTENSION = ".ini";
+    private static final String AVD_EXTENSION = ".avd";
+    // files of a running emulator, recreated on each launch
+    private static final List<String> TRANSIENT_FILES = Arrays.asList("hardware-qemu.ini", "emu-launch-params.txt");
+    // images the emulator writes to, each clone needs its own copy
+    private static final List<String> WRITABLE_IMAGES = Arrays.asList("cache.img", "sdcard.img",
+            "encryptionkey.img");
+    private static final String SNAPSHOTS_FOLDER = "snapshots";
+
+    private File avdHome;                       // folder of the AVDs, ~/.android/avd
+    private String[] reflinkCommand;            // copies a file as a reflink or fails, null if not available
+    private long linkedBytes;
+    private long copiedBytes;
+    private long reflinkedBytes;
+
+    AvdCloner(File avdHome, String[] reflinkCommand) {
+        this.avdHome = avdHome;
+        this.reflinkCommand = reflinkCommand;
+    }
+
+    /**
+     * This method creates the clones of the golden AVD that do not exist yet, named prefix1 to prefixN.
+     *
+     * @param golden - name of the golden AVD.
+     * @param prefix - prefix of the names of the clones.
+     * @param count  - number of clones.
+     * @return names of the clones.
+     * @throws IOException if a clone cannot be created.
+     */
+    List<String> cloneAll(String golden, String prefix, int count) throws IOException {
+        File goldenFolder = new File(avdHome, golden + AVD_EXTENSION);
+        File[] locks = goldenFolder.listFiles((dir, name) -> name.endsWith(".lock"));
+        if (locks != null && locks.length > 0) {
+            System.out.println("The emulator of " + golden + " seems to be running, the clones may not be consistent");
+        }
+
+        List<String> clones = new ArrayList<>();
+        int created = 0;
+        long start = System.nanoTime();
+        for (int i = 1; i <= count; i++) {
+            String name = prefix + i;
+            clones.add(name);
+            if (new File(avdHome, name + INI_EXTENSION).isFile()
+                    && new File(avdHome, name + AVD_EXTENSION).isDirectory()) {
+                continue;
+            }
+            cloneAvd(golden, name);
+            created++;
+        }
+        if (created > 0) {
+            System.out.println("Cloned " + golden + " " + created + " times in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms: " + toMegabytes(linkedBytes)
+                    + " MB linked, " + toMegabytes(reflinkedBytes) + " MB reflinked, " + toMegabytes(copiedBytes)
+                    + " MB copied");
+        }
+        return clones;
+    }
+
+    /**
+     * This method creates a clone of the golden AVD. The ini file of the clone, by which the emulator finds it,
+     * is written last, so an interrupted clone is created again on the next run.
+     *
+     * @param golden - name of the golden AVD.
+     * @param name   - name of the clone.
+     * @throws IOException if the clone cannot be created.
+     */
+    void cloneAvd(String golden, String name) throws IOException {
+        File goldenFolder = new File(avdHome, golden + AVD_EXTENSION);
+        File cloneFolder = new File(avdHome, name + AVD_EXTENSION);
+        if (!goldenFolder.isDirectory()) {
+            throw new IOException("Golden AVD " + golden + " not found in " + avdHome);
+        }
+
+        deleteRecursively(cloneFolder);
+        copyFolder(goldenFolder, cloneFolder, goldenFolder, golden, name, false);
+        rewriteIni(new File(avdHome, golden + INI_EXTENSION), new File(avdHome, name + INI_EXTENSION),
+                goldenFolder, cloneFolder, golden, name);
+    }
+
+    /**
+     * This method fills the folder of the clone from the folder of the golden AVD.
+     */
+    private void copyFolder(File source, File target, File goldenFolder, String golden, String name,
+                            boolean writable) throws IOException {
+        File[] files = source.listFiles();
+        if (files == null) {
+            throw new IOException("Unable to list " + source);
+        }
+        if (!target.mkdirs() && !target.isDirectory()) {
+            throw new IOException("Unable to create " + target);
+        }
+        for (File file : files) {
+            String fileName = file.getName();
+            File targetFile = new File(target, fileName);
+            if (file.isDirectory()) {
+                copyFolder(file, targetFile, goldenFolder, golden, name,
+                        writable || fileName.equals(SNAPSHOTS_FOLDER));
+            } else if (fileName.endsWith(".lock") || TRANSIENT_FILES.contains(fileName)) {
+                continue;
+            } else if (fileName.endsWith(INI_EXTENSION)) {
+                rewriteIni(file, targetFile, goldenFolder, new File(avdHome, name + AVD_EXTENSION), golden, name);
+            } else if (writable || WRITABLE_IMAGES.contains(fileName) || fileName.endsWith("-qemu.img")
+                    || fileName.endsWith(".qcow2")) {
+                copyWritable(file, targetFile);
+            } else if (fileName.endsWith(".img")) {
+                link(file, targetFile);
+            } else {
+                // small files of the emulator, eg: AVD.conf with the window position, which may be written
+                Files.copy(file.toPath(), targetFile.toPath());
+                copiedBytes += file.length();
+            }
+        }
+    }
+
+    /**
+     * This method writes the ini file for the clone, pointing the paths and the name of the golden AVD to it.
+     */
+    private static void rewriteIni(File source, File target, File goldenFolder, File cloneFolder, String golden,
+                                   String name) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(source.toPath(), StandardCharsets.UTF_8)) {
+            if (line.startsWith("AvdId=")) {
+                line = "AvdId=" + name;
+            } else if (line.startsWith("avd.ini.displayname=")) {
+                line = "avd.ini.displayname=" + name;
+            } else if (line.startsWith("path.rel=")) {
+                line = line.replace(golden + AVD_EXTENSION, name + AVD_EXTENSION);
+            } else {
+                line = line.replace(goldenFolder.getAbsolutePath(), cloneFolder.getAbsolutePath());
+            }
+            lines.add(line);
+        }
+        File temp = new File(target.getPath() + ".tmp");
+        Files.write(temp.toPath(), lines, StandardCharsets.UTF_8);
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * This method shares a read only image with the clone, copying it if it cannot be linked, eg: the AVDs
+     * are on a file system without hard links.
+     */
+    private void link(File source, File target) throws IOException {
+        try {
+            Files.createLink(target.toPath(), source.toPath());
+            linkedBytes += source.length();
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(source.toPath(), target.toPath());
+            copiedBytes += source.length();
+        }
+    }
+
+    /**
+     * This method copies an image the emulator writes to, as a reflink which shares the blocks until they are
+     * written if the file system supports it.
+     */
+    private void copyWritable(File source, File target) throws IOException {
+        if (reflinkCommand != null) {
+            List<String> command = new ArrayList<>(Arrays.asList(reflinkCommand));
+            command.add(source.getAbsolutePath());
+            command.add(target.getAbsolutePath());
+            try {
+                Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                        .redirectOutput(ProcessBuilder.Redirect.PIPE).start();
+                process.getInputStream().close();
+                if (process.waitFor() == 0) {
+                    reflinkedBytes += source.length();
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while copying " + source, e);
+            }
+            // the file system does not support reflinks, which will not change for the rest of the images
+            reflinkCommand = null;
+            Files.deleteIfExists(target.toPath());
+        }
+        Files.copy(source.toPath(), target.toPath());
+        copiedBytes += source.length();
+    }
+
+    private static void deleteRecursively(File file) throws IOException {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteRecursively(child);
+            }
+        }
+        Files.deleteIfExists(file.toPath());
+    }
+
+    private static long toMegabytes(long bytes) {
+        return bytes / (1024 * 1024);
+    }
+}
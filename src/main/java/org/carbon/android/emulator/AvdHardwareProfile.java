@@ -0,0 +1,201 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class sizes the hardware of an AVD for the number of devices the host has to run at once, so the
+ * devices together fit in the memory of the host without swapping, and writes it to the config.ini of the
+ * AVD. It also works out the largest number of devices the host can run safely.
+ */
+class AvdHardwareProfile {
+    static final int MIN_RAM_MB = 512;                  // the agent runs on an API 23 image with 512 MB
+    static final int MAX_RAM_MB = 2048;
+    private static final int EMULATOR_OVERHEAD_MB = 300;    // memory of an emulator process besides the guest RAM
+    private static final int HOST_RESERVE_MB = 1024;    // memory kept for the host, at least a tenth of it
+    private static final int MAX_CORES = 4;
+    private static final int VCPUS_PER_CORE = 2;        // the agents idle once booted
+    private static final int MIN_PARTITION_MB = 200;
+    private static final int MAX_PARTITION_MB = 800;
+    private static final int IMAGES_OVERHEAD_MB = 300;  // cache, snapshot and other images of an AVD
+
+    private HostResources host;
+    private int devices;
+    private int ramMb;
+    private int cores;
+    private int heapMb;
+    private int dataPartitionMb;
+
+    AvdHardwareProfile(HostResources host, int devices, int ramMb, int cores, int heapMb, int dataPartitionMb) {
+        this.host = host;
+        this.devices = devices;
+        this.ramMb = ramMb;
+        this.cores = cores;
+        this.heapMb = heapMb;
+        this.dataPartitionMb = dataPartitionMb;
+    }
+
+    /**
+     * This method sizes an AVD so the given number of them run on the host at once.
+     *
+     * @param host    - resources of the host.
+     * @param devices - number of devices running at once.
+     * @return the profile of each AVD.
+     */
+    static AvdHardwareProfile forHost(HostResources host, int devices) {
+        int count = Math.max(1, devices);
+        long usableMb = usableMemoryMb(host);
+        int ramMb = clamp(roundDown(usableMb / count - EMULATOR_OVERHEAD_MB, 64), MIN_RAM_MB, MAX_RAM_MB);
+        int cores = clamp(host.getCores() * VCPUS_PER_CORE / count, 1, MAX_CORES);
+        int heapMb = clamp(roundDown(ramMb / 16, 16), 32, 256);
+        // half of the free disk is left to the host
+        int dataPartitionMb = clamp(roundDown(host.getFreeDiskMb() / 2 / count - IMAGES_OVERHEAD_MB, 50),
+                MIN_PARTITION_MB, MAX_PARTITION_MB);
+        return new AvdHardwareProfile(host, count, ramMb, cores, heapMb, dataPartitionMb);
+    }
+
+    private static long usableMemoryMb(HostResources host) {
+        long reserveMb = Math.max(HOST_RESERVE_MB, host.getTotalMemoryMb() / 10);
+        return Math.max(0, host.getAvailableMemoryMb() - reserveMb);
+    }
+
+    /**
+     * This method gives the largest number of the smallest devices which fit in the memory, the cores and the
+     * disk of the host.
+     *
+     * @return the number of devices.
+     */
+    long getMaxDensity() {
+        long[] limits = densityLimits();
+        return Math.min(limits[0], Math.min(limits[1], limits[2]));
+    }
+
+    /**
+     * This method gives the resource of the host which limits the density.
+     *
+     * @return memory, cores or disk.
+     */
+    String getDensityLimit() {
+        long[] limits = densityLimits();
+        if (limits[0] <= limits[1] && limits[0] <= limits[2]) {
+            return "memory";
+        }
+        return limits[1] <= limits[2] ? "cores" : "disk";
+    }
+
+    /**
+     * This method gives the number of the smallest devices which fit in the memory, the cores and the disk.
+     */
+    private long[] densityLimits() {
+        return new long[]{usableMemoryMb(host) / (MIN_RAM_MB + EMULATOR_OVERHEAD_MB),
+                (long) host.getCores() * VCPUS_PER_CORE,
+                host.getFreeDiskMb() / 2 / (MIN_PARTITION_MB + IMAGES_OVERHEAD_MB)};
+    }
+
+    /**
+     * This method checks that the devices of this profile fit in the memory of the host.
+     *
+     * @return true if the host does not have to swap.
+     */
+    boolean fitsInMemory() {
+        return (long) devices * (ramMb + EMULATOR_OVERHEAD_MB) <= usableMemoryMb(host);
+    }
+
+    /**
+     * This method prints the resources of the host, the profile and the largest safe number of devices.
+     */
+    void report() {
+        System.out.println(String.format("Host: %d cores, %d MB memory (%d MB available), %d MB free disk",
+                host.getCores(), host.getTotalMemoryMb(), host.getAvailableMemoryMb(), host.getFreeDiskMb()));
+        System.out.println(String.format("AVD profile for %d device(s): %d MB RAM, %d core(s), %d MB heap, "
+                + "%d MB data partition", devices, ramMb, cores, heapMb, dataPartitionMb));
+        System.out.println("Maximum safe density: " + getMaxDensity() + " devices, limited by the "
+                + getDensityLimit() + " of the host");
+        if (devices > getMaxDensity()) {
+            System.out.println("WARNING: " + devices + " devices are more than the host runs safely");
+        }
+        if (!fitsInMemory()) {
+            System.out.println("WARNING: " + devices + " devices of " + ramMb + " MB do not fit in the memory "
+                    + "of the host, the host will swap");
+        }
+    }
+
+    /**
+     * This method writes the config.ini of an AVD from a template, with the hardware of this profile in place
+     * of the values of the template. The other keys keep their order and values.
+     *
+     * @param template - the template, may be the config.ini itself.
+     * @param target   - the config.ini to write.
+     * @throws IOException if the template cannot be read or the config cannot be written.
+     */
+    void writeConfig(File template, File target) throws IOException {
+        Map<String, String> config = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(template.toPath(), StandardCharsets.UTF_8)) {
+            int separator = line.indexOf('=');
+            if (separator > 0) {
+                config.put(line.substring(0, separator).trim(), line.substring(separator + 1).trim());
+            }
+        }
+        config.put("hw.ramSize", String.valueOf(ramMb));
+        config.put("hw.cpu.ncore", String.valueOf(cores));
+        config.put("vm.heapSize", String.valueOf(heapMb));
+        config.put("disk.dataPartition.size", dataPartitionMb + "M");
+
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, String> entry : config.entrySet()) {
+            lines.add(entry.getKey() + "=" + entry.getValue());
+        }
+        File temp = new File(target.getPath() + ".tmp");
+        Files.write(temp.toPath(), lines, StandardCharsets.UTF_8);
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static int clamp(long value, int min, int max) {
+        return (int) Math.max(min, Math.min(max, value));
+    }
+
+    private static long roundDown(long value, int step) {
+        return value - Math.floorMod(value, step);
+    }
+
+    int getRamMb() {
+        return ramMb;
+    }
+
+    int getCores() {
+        return cores;
+    }
+
+    int getHeapMb() {
+        return heapMb;
+    }
+
+    int getDataPartitionMb() {
+        return dataPartitionMb;
+    }
+}
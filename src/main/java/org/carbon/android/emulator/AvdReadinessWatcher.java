@@ -0,0 +1,110 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class waits for the files the emulator creates in the AVD folder while it starts, using a
+ * WatchService instead of checking for them once per second.
+ */
+class AvdReadinessWatcher {
+    // upper bound of the reaction time where the WatchService falls back to polling, eg: on mac os
+    private static final long RECHECK_MILLIS = 200;
+
+    /**
+     * This method halts until all the files exist in the AVD folder.
+     *
+     * @param avdFolder     - the AVD folder, which may not exist yet.
+     * @param files         - names of the files to wait for.
+     * @param launched      - System.nanoTime() when the emulator was launched.
+     * @param timeoutMillis - maximum time to wait.
+     * @return the time in milliseconds after the launch each file appeared at, in the order they appeared.
+     * @throws IOException          if the folder cannot be watched.
+     * @throws InterruptedException if interrupted while waiting.
+     * @throws TimeoutException     if a file did not appear within the timeout.
+     */
+    Map<String, Long> waitFor(File avdFolder, List<String> files, long launched, long timeoutMillis)
+            throws IOException, InterruptedException, TimeoutException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        Map<String, Long> stages = new LinkedHashMap<>();
+        List<String> pending = new ArrayList<>(files);
+
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            Path watched = register(watchService, avdFolder);
+
+            while (true) {
+                // check after registering, so files created before the registration are not missed
+                if (!watched.equals(avdFolder.toPath()) && avdFolder.isDirectory()) {
+                    watched = register(watchService, avdFolder);
+                }
+                for (Iterator<String> iterator = pending.iterator(); iterator.hasNext(); ) {
+                    String file = iterator.next();
+                    if (new File(avdFolder, file).exists()) {
+                        stages.put(file, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - launched));
+                        iterator.remove();
+                    }
+                }
+                if (pending.isEmpty()) {
+                    return stages;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new TimeoutException(pending + " not created in " + avdFolder + " within "
+                            + timeoutMillis + " ms");
+                }
+                WatchKey key = watchService.poll(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(RECHECK_MILLIS)),
+                        TimeUnit.NANOSECONDS);
+                if (key != null) {
+                    key.pollEvents();
+                    key.reset();
+                }
+            }
+        }
+    }
+
+    /**
+     * This method watches the folder, or its closest existing parent until the folder is created.
+     */
+    private static Path register(WatchService watchService, File folder) throws IOException {
+        File existing = folder;
+        while (!existing.isDirectory()) {
+            existing = existing.getParentFile();
+            if (existing == null) {
+                throw new IOException("No existing parent of " + folder);
+            }
+        }
+        Path path = existing.toPath();
+        path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        return path;
+    }
+}
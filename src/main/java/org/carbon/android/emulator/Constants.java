@@ -29,11 +29,54 @@ class Constants {
     static final String WINDOWS_OS = "windows";
     static final String WINDOWS_EXTENSION_EXE = ".exe";
     static final String WINDOWS_EXTENSION_BAT = ".bat";
-    static final String NAME = "name=";
     static final String SDK_TOOLS_URL = "sdk_tools_url";
     static final String PLATFORM_TOOLS_URL = "platform_tools_url";
-    static final String BUILD_TOOL_URL = "build_tools_url";
     static final String PLATFORM_URL = "platform_url";
     static final String SYSTEM_IMAGE_URL = "sys_img_url";
     static final String HAXM_URL = "haxm_url";
+    static final String PROVISION_THREADS = "provision_threads";
+    static final String DOWNLOAD_CONNECTIONS = "download_connections";
+    static final String DOWNLOAD_RETRIES = "download_retries";
+    static final String STREAMING_EXTRACT = "streaming_extract";
+    static final String CACHE_DIRECTORY = "cache_dir";
+    static final String CACHE_MAX_SIZE = "cache_max_size_mb";
+    static final String OFFLINE = "offline";
+    static final String MANIFEST_FILE = "sdkManifest.properties";
+    static final String BOOT_TIMEOUT = "boot_timeout";
+    static final String AVD_READY_FILES = "avd_ready_files";
+    static final String AVD_READY_TIMEOUT = "avd_ready_timeout";
+    static final String FLEET_SIZE = "fleet_size";
+    static final String FLEET_AVDS = "fleet_avds";
+    static final String FLEET_PARALLELISM = "fleet_parallelism";
+    static final String GOLDEN_AVD = "golden_avd";
+    static final String QUICK_BOOT = "quick_boot";
+    static final String SNAPSHOT_NAME = "snapshot_name";
+    static final String CONSOLE_PORT = "console_port";
+    static final String EMULATOR_LOG_MAX_SIZE = "emulator_log_max_size_mb";
+    static final String EMULATOR_LOG_FILES = "emulator_log_files";
+    static final String HEALTH_CHECK_INTERVAL = "health_check_interval";
+    static final String HEALTH_CHECK_FAILURES = "health_check_failures";
+    static final String RESTART_BACKOFF_MAX = "restart_backoff_max";
+    static final String UPTIME_REPORT_INTERVAL = "uptime_report_interval";
+    static final String METRICS_DIRECTORY = "metrics_directory";
+    static final String AVD_PROFILE = "avd_profile";
+    static final String LAUNCH_PROFILE = "launch_profile";
+    static final String EMULATOR_GPU = "emulator_gpu";
+    static final String TRACE_GPS = "trace_gps";
+    static final String TRACE_BATTERY = "trace_battery";
+    static final String TRACE_SENSORS = "trace_sensors";
+    static final String TRACE_RATE = "trace_rate";
+    static final String TRACE_SPEED = "trace_speed";
+    static final String TRACE_LOOP = "trace_loop";
+    static final String LOGCAT_STORE = "logcat_store";
+    static final String LOGCAT_MAX_SIZE = "logcat_max_size_mb";
+    static final String LOGCAT_AVD = "logcat_avd";
+    static final String LOGCAT_TAG = "logcat_tag";
+    static final String LOGCAT_PID = "logcat_pid";
+    static final String LOGCAT_SINCE = "logcat_since";
+    static final String POOL_SIZE = "pool_size";
+    static final String POOL_MAX = "pool_max";
+    static final String POOL_BOOT_FAILURES = "pool_boot_failures";
+    static final String DAEMON_PORT = "daemon_port";
+    static final String LEASE_TIMEOUT = "lease_timeout";
 }
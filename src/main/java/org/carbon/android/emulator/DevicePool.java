@@ -0,0 +1,403 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class keeps a pool of booted devices with the agent running, and leases them to test jobs. A device
+ * is leased in the time of a lookup, and a returned device is brought back to a snapshot taken when it was
+ * first ready, or has its agent restarted if the emulator cannot take snapshots. While devices are leased,
+ * more of them are booted in the background to keep the pool full, up to one for each AVD. A device which fails
+ * is stopped and its AVD is booted again after a backoff which doubles with each failure in a row, until the AVD
+ * failed too many times in a row.
+ */
+class DevicePool {
+    static final String SNAPSHOT_NAME = "wso2_pool";
+    private static final int CONSOLE_TIMEOUT = 120000;      // loading a snapshot takes a while for a large RAM
+    private static final long BOOT_TIMEOUT = 600000;         // boot of a device restarted by the supervisor
+    private static final long RESCAN_MILLIS = 1000;
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+
+    private EmulatorFleet fleet;
+    private List<String> avds;                  // one device at most for each AVD
+    private int size;                           // devices kept ready for a lease
+    private File authTokenFile;
+    private long leaseTimeoutMillis;
+    private long maxBackoffMillis;              // longest wait before the AVD of a failed device is booted again
+    private int maxFailures;                    // failures in a row after which an AVD is not booted again
+    private List<Pooled> devices = new ArrayList<>();
+    private boolean[] slots;                    // true for the slots whose AVD has a device, booting or stopping
+    private int starting;                       // devices being booted for the pool
+    private int[] failures;                     // failures in a row of the AVD of each slot
+    private long[] retryAt;                     // System.nanoTime() before which a failed slot is not booted
+    private ExecutorService workers = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "device-pool");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ScheduledExecutorService expiry = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "device-pool-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * This method sets up the pool.
+     *
+     * @param fleet              - the fleet which starts the devices.
+     * @param avds               - the AVDs of the devices.
+     * @param size               - number of devices kept ready for a lease.
+     * @param authTokenFile      - auth token of the emulator consoles.
+     * @param leaseTimeoutMillis - time after which a device not returned is taken back.
+     * @param maxBackoffMillis   - longest wait before the AVD of a failed device is booted again.
+     * @param maxFailures        - failures in a row after which an AVD is not booted again.
+     */
+    DevicePool(EmulatorFleet fleet, List<String> avds, int size, File authTokenFile, long leaseTimeoutMillis,
+               long maxBackoffMillis, int maxFailures) {
+        this.fleet = fleet;
+        this.avds = avds;
+        this.size = Math.min(size, avds.size());
+        this.authTokenFile = authTokenFile;
+        this.leaseTimeoutMillis = leaseTimeoutMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.maxFailures = Math.max(1, maxFailures);
+        slots = new boolean[avds.size()];
+        failures = new int[avds.size()];
+        retryAt = new long[avds.size()];
+    }
+
+    /**
+     * This method boots the devices of the pool and waits until they are ready.
+     */
+    void start() {
+        List<EmulatorFleet.Device> started = fleet.start(avds.subList(0, size));
+        List<Runnable> snapshots = new ArrayList<>();
+        synchronized (this) {
+            for (int slot = 0; slot < started.size(); slot++) {
+                Pooled pooled = new Pooled(started.get(slot), slot);
+                slots[slot] = true;
+                devices.add(pooled);
+                if (pooled.device.isReady()) {
+                    pooled.state = State.PREPARING;
+                    snapshots.add(() -> prepare(pooled));
+                } else {
+                    pooled.state = State.FAILED;
+                    snapshots.add(() -> discard(pooled));
+                }
+            }
+        }
+        snapshots.forEach(workers::execute);
+        long checkMillis = Math.max(1000, leaseTimeoutMillis / 10);
+        expiry.scheduleWithFixedDelay(this::takeBackExpired, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+        refill();
+    }
+
+    /**
+     * This method leases a ready device, waiting for one if none is ready.
+     *
+     * @param waitMillis - maximum time to wait for a device, 0 not to wait.
+     * @return the lease, or null if no device was ready in time.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    synchronized Lease lease(long waitMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + waitMillis;
+        while (true) {
+            for (Pooled pooled : devices) {
+                if (pooled.state != State.READY) {
+                    continue;
+                }
+                if (pooled.device.getRestarts() != pooled.restarts) {
+                    // restarted by the supervisor, so it is not in the state it was leased in
+                    pooled.state = State.RESETTING;
+                    workers.execute(() -> reset(pooled));
+                } else if (pooled.device.isRunning()) {
+                    pooled.state = State.LEASED;
+                    pooled.lease = new Lease(UUID.randomUUID().toString(), pooled.device);
+                    pooled.leasedAt = System.currentTimeMillis();
+                    System.out.println("Leased " + pooled.device.getSerial() + " as " + pooled.lease.getId());
+                    refill();
+                    return pooled.lease;
+                }
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return null;
+            }
+            // the devices are looked at again now and then, as a restart does not wake the waiting leases
+            wait(Math.min(remaining, RESCAN_MILLIS));
+        }
+    }
+
+    /**
+     * This method takes back a leased device and resets it in the background.
+     *
+     * @param leaseId - id of the lease.
+     * @return false if there is no such lease.
+     */
+    synchronized boolean release(String leaseId) {
+        for (Pooled pooled : devices) {
+            if (pooled.state == State.LEASED && pooled.lease.getId().equals(leaseId)) {
+                takeBack(pooled);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * This method gives the state of every device of the pool as JSON.
+     *
+     * @return the JSON array.
+     */
+    synchronized String toJson() {
+        StringBuilder json = new StringBuilder("[");
+        for (Pooled pooled : devices) {
+            json.append(json.length() == 1 ? "\n" : ",\n").append("  {\"serial\": \"")
+                    .append(pooled.device.getSerial()).append("\", \"avd\": \"").append(pooled.device.getAvd())
+                    .append("\", \"state\": \"").append(pooled.state.name().toLowerCase())
+                    .append("\", \"restarts\": ").append(pooled.device.getRestarts());
+            if (pooled.state == State.LEASED) {
+                json.append(", \"lease\": \"").append(pooled.lease.getId()).append("\", \"leased_seconds\": ")
+                        .append(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - pooled.leasedAt));
+            }
+            json.append('}');
+        }
+        return json.append(devices.isEmpty() ? "]\n" : "\n]\n").toString();
+    }
+
+    int getAdbServerPort() {
+        return fleet.getAdbServerPort();
+    }
+
+    private void takeBack(Pooled pooled) {
+        System.out.println("Returned " + pooled.device.getSerial() + " of " + pooled.lease.getId());
+        pooled.state = State.RESETTING;
+        pooled.lease = null;
+        workers.execute(() -> reset(pooled));
+    }
+
+    private synchronized void takeBackExpired() {
+        long now = System.currentTimeMillis();
+        for (Pooled pooled : devices) {
+            if (pooled.state == State.LEASED && now - pooled.leasedAt > leaseTimeoutMillis) {
+                System.out.println("Lease " + pooled.lease.getId() + " expired");
+                takeBack(pooled);
+            }
+        }
+    }
+
+    /**
+     * This method boots more devices in the background while fewer than the size of the pool are ready or
+     * coming, and AVDs are left which are not held back after failures.
+     */
+    private synchronized void refill() {
+        int available = starting;
+        for (Pooled pooled : devices) {
+            if (pooled.state == State.READY || pooled.state == State.PREPARING || pooled.state == State.RESETTING) {
+                available++;
+            }
+        }
+        for (int slot = 0; slot < slots.length && available < size; slot++) {
+            if (slots[slot] || failures[slot] >= maxFailures
+                    || (failures[slot] > 0 && System.nanoTime() - retryAt[slot] < 0)) {
+                continue;
+            }
+            final int freeSlot = slot;
+            slots[slot] = true;
+            starting++;
+            available++;
+            workers.execute(() -> boot(freeSlot));
+        }
+    }
+
+    /**
+     * This method boots the device of the slot and prepares it. The slot is freed and held back if the device
+     * cannot be started, and another AVD is booted in its place if one is left.
+     */
+    private void boot(int slot) {
+        Pooled pooled = null;
+        try {
+            EmulatorFleet.Device device = fleet.startOne(avds.get(slot), slot);
+            pooled = new Pooled(device, slot);
+            synchronized (this) {
+                devices.add(pooled);
+                pooled.state = device.isReady() ? State.PREPARING : State.FAILED;
+            }
+        } catch (RuntimeException e) {
+            System.out.println("Unable to start " + avds.get(slot) + " for the pool: " + e.getMessage());
+        } finally {
+            synchronized (this) {
+                starting--;
+                if (pooled == null) {
+                    slots[slot] = false;
+                    holdBack(slot);
+                }
+            }
+        }
+        if (pooled == null) {
+            refill();
+            return;
+        }
+        if (pooled.device.isReady()) {
+            prepare(pooled);
+        } else {
+            discard(pooled);
+        }
+    }
+
+    /**
+     * This method stops a failed device and frees its slot, so its AVD is booted again after the backoff.
+     */
+    private void discard(Pooled pooled) {
+        System.out.println("Stopping " + pooled.device.getSerial() + " (" + pooled.device.getAvd() + "), it failed");
+        fleet.stop(pooled.device);
+        synchronized (this) {
+            devices.remove(pooled);
+            slots[pooled.slot] = false;
+            holdBack(pooled.slot);
+        }
+        refill();
+    }
+
+    /**
+     * This method counts a failure of the AVD of the slot, and holds the slot back for a backoff which doubles
+     * with each failure in a row, or for good after the maximum failures in a row. Guarded by the pool.
+     */
+    private void holdBack(int slot) {
+        failures[slot]++;
+        if (failures[slot] >= maxFailures) {
+            System.out.println(avds.get(slot) + " failed " + failures[slot]
+                    + " times in a row, it is not booted again");
+            return;
+        }
+        long backoff = Math.min(maxBackoffMillis, INITIAL_BACKOFF_MILLIS << Math.min(failures[slot] - 1, 20));
+        retryAt[slot] = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff);
+        System.out.println(avds.get(slot) + " is booted again in " + backoff + " ms");
+        expiry.schedule(this::refill, backoff, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * This method takes the snapshot of a device which is ready for the first time, and makes it available.
+     */
+    private void prepare(Pooled pooled) {
+        try (EmulatorConsole console = openConsole(pooled.device)) {
+            console.send("avd snapshot save " + SNAPSHOT_NAME);
+            pooled.snapshot = true;
+        } catch (IOException e) {
+            System.out.println("No snapshot of " + pooled.device.getSerial() + " (" + e.getMessage()
+                    + "), its agent is restarted when it is returned");
+        }
+        ready(pooled);
+    }
+
+    /**
+     * This method brings a returned device back to the state it was leased in.
+     */
+    private void reset(Pooled pooled) {
+        long start = System.currentTimeMillis();
+        try {
+            fleet.getAdbDevice(pooled.device).waitForBoot(BOOT_TIMEOUT);
+            if (pooled.snapshot) {
+                try (EmulatorConsole console = openConsole(pooled.device)) {
+                    QuickBoot.reset(console, SNAPSHOT_NAME);
+                }
+            } else {
+                AdbDevice adbDevice = fleet.getAdbDevice(pooled.device);
+                ApkManifest agent = fleet.getAgent();
+                adbDevice.getAdbClient().shell("am force-stop " + agent.getPackageName());
+                adbDevice.startActivity(agent.getPackageName(), agent.getLaunchableActivity());
+            }
+            System.out.println("Reset " + pooled.device.getSerial() + " in " + (System.currentTimeMillis() - start)
+                    + " ms");
+            ready(pooled);
+        } catch (Exception e) {
+            System.out.println("Unable to reset " + pooled.device.getSerial() + ": " + e.getMessage());
+            synchronized (this) {
+                pooled.state = State.FAILED;
+            }
+            discard(pooled);
+        }
+    }
+
+    private synchronized void ready(Pooled pooled) {
+        pooled.state = State.READY;
+        failures[pooled.slot] = 0;
+        pooled.restarts = pooled.device.getRestarts();
+        notifyAll();
+    }
+
+    private EmulatorConsole openConsole(EmulatorFleet.Device device) throws IOException {
+        return new EmulatorConsole("127.0.0.1", device.getConsolePort(), authTokenFile, CONSOLE_TIMEOUT);
+    }
+
+    /**
+     * This enum has the states of a device of the pool.
+     */
+    enum State {
+        PREPARING, READY, LEASED, RESETTING, FAILED
+    }
+
+    /**
+     * This class is a lease of a device.
+     */
+    static class Lease {
+        private String id;
+        private EmulatorFleet.Device device;
+
+        private Lease(String id, EmulatorFleet.Device device) {
+            this.id = id;
+            this.device = device;
+        }
+
+        String getId() {
+            return id;
+        }
+
+        EmulatorFleet.Device getDevice() {
+            return device;
+        }
+    }
+
+    /**
+     * This class has the state of a device of the pool, guarded by the pool.
+     */
+    private static class Pooled {
+        private EmulatorFleet.Device device;
+        private State state;
+        private Lease lease;                    // null unless leased
+        private long leasedAt;
+        private boolean snapshot;               // true if the device is reset from the snapshot
+        private int restarts;                   // restarts of the emulator when the device was last ready
+        private int slot;                       // index of the AVD, which chooses the ports of the device
+
+        private Pooled(EmulatorFleet.Device device, int slot) {
+            this.device = device;
+            this.slot = slot;
+        }
+    }
+}
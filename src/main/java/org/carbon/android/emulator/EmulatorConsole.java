@@ -0,0 +1,153 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class runs commands on the console of a running emulator, authenticating with the token the
+ * emulator keeps in the home folder of the user.
+ */
+class EmulatorConsole implements Closeable {
+    static final String AUTH_TOKEN_FILE = ".emulator_console_auth_token";
+    private static final int CONNECT_TIMEOUT = 2000;
+
+    private Socket socket;
+    private BufferedReader reader;
+    private OutputStream out;
+
+    /**
+     * This method connects to the console and authenticates if the console requires it.
+     *
+     * @param host          - host of the emulator.
+     * @param port          - console port of the emulator.
+     * @param authTokenFile - file with the auth token.
+     * @param timeout       - read timeout in milliseconds, 0 for none.
+     * @throws IOException if the console is not available or the authentication fails.
+     */
+    EmulatorConsole(String host, int port, File authTokenFile, int timeout) throws IOException {
+        socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+            socket.setSoTimeout(timeout);
+            reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = socket.getOutputStream();
+
+            String banner = readReply();
+            if (banner.contains("Authentication required")) {
+                if (!authTokenFile.isFile()) {
+                    throw new IOException("Console auth token not found in " + authTokenFile);
+                }
+                String token = new String(Files.readAllBytes(authTokenFile.toPath()), StandardCharsets.UTF_8).trim();
+                send("auth " + token);
+            }
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * This method runs a console command.
+     *
+     * @param command - the command, eg: avd snapshot save name.
+     * @return the output of the command, without the OK line.
+     * @throws IOException if the console is closed or the command fails.
+     */
+    synchronized String send(String command) throws IOException {
+        out.write((command + "\r\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        return readReply();
+    }
+
+    /**
+     * This method runs the commands pipelined, writing all of them before reading the replies, so the batch
+     * takes one round trip instead of one for each command. A failed command does not stop the others.
+     *
+     * @param commands - the commands, few enough for their replies to fit in the socket buffers.
+     * @return the errors of the failed commands, empty if all of them succeeded.
+     * @throws IOException if the console is closed.
+     */
+    synchronized List<String> sendBatch(List<String> commands) throws IOException {
+        StringBuilder batch = new StringBuilder();
+        for (String command : commands) {
+            batch.append(command).append("\r\n");
+        }
+        out.write(batch.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+
+        List<String> errors = new ArrayList<>();
+        StringBuilder output = new StringBuilder();
+        for (String command : commands) {
+            String status = readStatus(output);
+            if (status.startsWith("KO")) {
+                errors.add(command + ": " + error(status));
+            }
+            output.setLength(0);
+        }
+        return errors;
+    }
+
+    /**
+     * This method reads the lines of a reply until the OK line, or fails on the KO line.
+     */
+    private String readReply() throws IOException {
+        StringBuilder output = new StringBuilder();
+        String status = readStatus(output);
+        if (status.startsWith("KO")) {
+            throw new IOException("Console command failed: " + error(status));
+        }
+        return output.toString();
+    }
+
+    /**
+     * This method reads the lines of a reply into the output and returns the OK or KO line which ends it.
+     */
+    private String readStatus(StringBuilder output) throws IOException {
+        String readLine;
+        while ((readLine = reader.readLine()) != null) {
+            if (readLine.equals("OK") || readLine.startsWith("KO")) {
+                return readLine;
+            }
+            output.append(readLine).append('\n');
+        }
+        throw new IOException("Console closed");
+    }
+
+    private static String error(String status) {
+        return status.substring(2).replaceFirst("^:\\s*", "");
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
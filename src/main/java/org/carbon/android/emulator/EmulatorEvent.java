@@ -0,0 +1,65 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+/**
+ * This class is a milestone of an emulator process, recognised in its output or in its life cycle.
+ */
+class EmulatorEvent {
+    /**
+     * This enum has the kinds of milestones.
+     */
+    enum Type {
+        PROCESS_STARTED,
+        ACCELERATOR,            // the accelerator reported its status, eg: HAX is working
+        CONSOLE_LISTENING,
+        ADB_CONNECTED,
+        BOOT_COMPLETED,
+        WARNING,
+        ERROR,
+        PROCESS_EXITED
+    }
+
+    private Type type;
+    private String line;                        // the output line, or the exit code for PROCESS_EXITED
+    private long millis;                        // time since the process was started
+
+    EmulatorEvent(Type type, String line, long millis) {
+        this.type = type;
+        this.line = line;
+        this.millis = millis;
+    }
+
+    Type getType() {
+        return type;
+    }
+
+    String getLine() {
+        return line;
+    }
+
+    long getMillis() {
+        return millis;
+    }
+
+    @Override
+    public String toString() {
+        return type.name().toLowerCase().replace('_', ' ') + " after " + millis + " ms: " + line;
+    }
+}
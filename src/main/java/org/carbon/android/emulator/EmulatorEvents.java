@@ -0,0 +1,92 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * This class parses the output lines of an emulator as they are read and publishes the milestones among
+ * them as events, so callers react to them instead of polling. A line which is not a milestone is
+ * matched in place and allocates nothing.
+ */
+class EmulatorEvents implements Consumer<String> {
+    private static final String EMULATOR_PREFIX = "emulator: ";
+
+    private List<Consumer<EmulatorEvent>> subscribers = new CopyOnWriteArrayList<>();
+    private volatile long startTime = System.nanoTime();
+
+    /**
+     * This method adds a subscriber, which is called on the thread reading the output, so it should not block.
+     *
+     * @param subscriber - receives each event.
+     */
+    void subscribe(Consumer<EmulatorEvent> subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    void started() {
+        startTime = System.nanoTime();
+        publish(EmulatorEvent.Type.PROCESS_STARTED, "");
+    }
+
+    void exited(int exitCode) {
+        publish(EmulatorEvent.Type.PROCESS_EXITED, String.valueOf(exitCode));
+    }
+
+    /**
+     * This method parses an output line of the emulator. Both the old format, eg: "emulator: ERROR: message",
+     * and the new one, eg: "ERROR   | message", are recognised.
+     *
+     * @param line - the output line.
+     */
+    @Override
+    public void accept(String line) {
+        int offset = line.startsWith(EMULATOR_PREFIX) ? EMULATOR_PREFIX.length() : 0;
+
+        if (line.startsWith("ERROR", offset) || line.startsWith("PANIC", offset)
+                || line.startsWith("FATAL", offset)) {
+            publish(EmulatorEvent.Type.ERROR, line);
+        } else if (line.indexOf("HAX is working", offset) >= 0 || line.indexOf("is installed and usable", offset) >= 0
+                || line.indexOf("CPU Acceleration: working", offset) >= 0
+                || line.indexOf("CPU Acceleration: DISABLED", offset) >= 0) {
+            publish(EmulatorEvent.Type.ACCELERATOR, line);
+        } else if (line.indexOf("console connections on port", offset) >= 0
+                || line.startsWith("Serial number of this emulator", offset)) {
+            publish(EmulatorEvent.Type.CONSOLE_LISTENING, line);
+        } else if (line.indexOf("Adb connected", offset) >= 0 || line.indexOf("adb connected", offset) >= 0
+                || line.indexOf("ADB connected", offset) >= 0) {
+            publish(EmulatorEvent.Type.ADB_CONNECTED, line);
+        } else if (line.indexOf("Boot completed", offset) >= 0 || line.indexOf("boot completed", offset) >= 0) {
+            publish(EmulatorEvent.Type.BOOT_COMPLETED, line);
+        } else if (line.startsWith("WARNING", offset)) {
+            publish(EmulatorEvent.Type.WARNING, line);
+        }
+    }
+
+    private void publish(EmulatorEvent.Type type, String line) {
+        EmulatorEvent event = new EmulatorEvent(type, line,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        for (Consumer<EmulatorEvent> subscriber : subscribers) {
+            subscriber.accept(event);
+        }
+    }
+}
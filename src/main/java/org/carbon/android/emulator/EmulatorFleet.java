@@ -0,0 +1,387 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class starts many AVDs at the same time, each on its own console and adb port pair, and installs
+ * and starts the agent on every one of them. At most the given number of devices are booting at once.
+ * The emulators are owned by the supervisor, which restarts them until the JVM exits.
+ */
+class EmulatorFleet {
+    static final int FIRST_CONSOLE_PORT = 5554;
+    static final int LAST_CONSOLE_PORT = 5682;          // highest console port the emulator accepts
+    static final int HEALTH_CHECK_TIMEOUT = 5000;
+
+    private String emulatorLocation;
+    private String adbLocation;
+    private int adbServerPort;
+    private File avdHome;                               // folder of the AVDs, ~/.android/avd
+    private File logFolder;
+    private int parallelism;
+    private List<String> avdReadyFiles;
+    private long avdReadyTimeout;
+    private long bootTimeout;
+    private String apkLocation;
+    private ApkManifest agent;
+    private EmulatorSupervisor supervisor;
+    private StartupMetrics metrics;
+    private List<String> emulatorOptions = Collections.emptyList();
+    private LogcatCollector logcat;
+
+    EmulatorFleet(String emulatorLocation, String adbLocation, int adbServerPort, File avdHome, File logFolder,
+                  int parallelism) {
+        this.emulatorLocation = emulatorLocation;
+        this.adbLocation = adbLocation;
+        this.adbServerPort = adbServerPort;
+        this.avdHome = avdHome;
+        this.logFolder = logFolder;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * This method sets what each device waits for before it is ready.
+     *
+     * @param files           - files the emulator creates in the AVD folder.
+     * @param filesTimeout    - maximum time to wait for the files in milliseconds.
+     * @param bootTimeoutTime - maximum time to wait for the boot in milliseconds.
+     */
+    void setReadiness(List<String> files, long filesTimeout, long bootTimeoutTime) {
+        avdReadyFiles = files;
+        avdReadyTimeout = filesTimeout;
+        bootTimeout = bootTimeoutTime;
+    }
+
+    /**
+     * This method sets the agent installed and started on every device.
+     *
+     * @param apk           - location of the agent apk.
+     * @param agentManifest - manifest of the agent apk.
+     */
+    void setAgent(String apk, ApkManifest agentManifest) {
+        apkLocation = apk;
+        agent = agentManifest;
+    }
+
+    /**
+     * This method sets where the time of the stages of every device is recorded.
+     *
+     * @param startupMetrics - the metrics of the run.
+     */
+    void setMetrics(StartupMetrics startupMetrics) {
+        metrics = startupMetrics;
+    }
+
+    /**
+     * This method sets the options every emulator of the fleet is started with.
+     *
+     * @param options - the emulator options.
+     */
+    void setEmulatorOptions(List<String> options) {
+        emulatorOptions = options;
+    }
+
+    /**
+     * This method sets the collector which streams the logcat of every device once it is booted.
+     *
+     * @param logcatCollector - the collector.
+     */
+    void setLogcat(LogcatCollector logcatCollector) {
+        logcat = logcatCollector;
+    }
+
+    /**
+     * This method sets the supervisor which owns the emulators of the fleet and restarts them.
+     *
+     * @param emulatorSupervisor - the supervisor.
+     */
+    void setSupervisor(EmulatorSupervisor emulatorSupervisor) {
+        supervisor = emulatorSupervisor;
+    }
+
+    /**
+     * This method starts the AVDs, waits until the agent runs on all of them and prints the time each
+     * of them took to be ready.
+     *
+     * @param avds - names of the AVDs, one emulator is started for each of them.
+     * @return the devices, in the order of the AVDs.
+     */
+    List<Device> start(List<String> avds) {
+        if (FIRST_CONSOLE_PORT + 2 * (avds.size() - 1) > LAST_CONSOLE_PORT) {
+            throw new IllegalArgumentException("At most " + ((LAST_CONSOLE_PORT - FIRST_CONSOLE_PORT) / 2 + 1)
+                    + " emulators can run at once");
+        }
+        // the emulators are not bounded, only the boot of them
+        ExecutorService bootPool = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, avds.size())));
+        List<Device> devices = new ArrayList<>();
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        long start = System.nanoTime();
+
+        try {
+            for (int i = 0; i < avds.size(); i++) {
+                final Device device = new Device(avds.get(i), FIRST_CONSOLE_PORT + 2 * i);
+                devices.add(device);
+                tasks.add(CompletableFuture.runAsync(() -> startDevice(device, start), bootPool));
+            }
+            CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[tasks.size()])).join();
+        } finally {
+            bootPool.shutdownNow();
+        }
+        report(devices, start);
+        if (metrics != null) {
+            record(devices, start);
+        }
+        return devices;
+    }
+
+    /**
+     * This method starts one more device after the fleet, eg: to refill a pool, and waits until the agent
+     * runs on it.
+     *
+     * @param avd  - name of the AVD.
+     * @param slot - index of the device in the fleet, which chooses its ports.
+     * @return the device, failed if the agent is not running on it.
+     */
+    Device startOne(String avd, int slot) {
+        if (FIRST_CONSOLE_PORT + 2 * slot > LAST_CONSOLE_PORT) {
+            throw new IllegalArgumentException("No console port left for the device " + slot);
+        }
+        Device device = new Device(avd, FIRST_CONSOLE_PORT + 2 * slot);
+        startDevice(device, System.nanoTime());
+        return device;
+    }
+
+    /**
+     * This method stops the emulator of the device for good, eg: a device the pool gives up on, and returns once
+     * it exited.
+     *
+     * @param device - the device.
+     */
+    void stop(Device device) {
+        if (device.supervised != null) {
+            supervisor.release(device.supervised);
+        }
+    }
+
+    /**
+     * This method gives a client of the device, through the adb server of the fleet.
+     *
+     * @param device - the device.
+     * @return the client.
+     */
+    AdbDevice getAdbDevice(Device device) {
+        return new AdbDevice(adbLocation, new AdbClient("127.0.0.1", adbServerPort, device.getSerial()));
+    }
+
+    ApkManifest getAgent() {
+        return agent;
+    }
+
+    int getAdbServerPort() {
+        return adbServerPort;
+    }
+
+    /**
+     * This method launches the emulator of the device and brings the agent up on it, recording the time
+     * of each stage. A failure is recorded on the device and does not stop the rest of the fleet.
+     */
+    private void startDevice(Device device, long fleetStart) {
+        try {
+            device.launched = System.nanoTime();
+            Thread deviceThread = Thread.currentThread();
+            AdbDevice adbDevice = new AdbDevice(adbLocation, new AdbClient("127.0.0.1", adbServerPort,
+                    device.getSerial()));
+            device.supervised = supervisor.supervise(device.getSerial(), () -> {
+                TryItEmulator emulator = new TryItEmulator(device.avd, emulatorLocation, device.consolePort,
+                        new File(logFolder, "emulator-" + device.consolePort + ".log"), emulatorOptions);
+                // stops waiting for the device as soon as its emulator exits
+                emulator.getEvents().subscribe(event -> {
+                    if (event.getType() == EmulatorEvent.Type.PROCESS_EXITED) {
+                        synchronized (device) {
+                            if (!device.started) {
+                                deviceThread.interrupt();
+                            }
+                        }
+                    }
+                });
+                return emulator;
+            }, () -> adbDevice.isResponsive(HEALTH_CHECK_TIMEOUT), () -> recover(device, adbDevice));
+            System.out.println("Starting : " + device.avd + " as " + device.getSerial());
+
+            new AvdReadinessWatcher().waitFor(new File(avdHome, device.avd + ".avd"), avdReadyFiles, device.launched,
+                    avdReadyTimeout);
+            device.filesCreated = System.nanoTime();
+
+            adbDevice.waitForBoot(bootTimeout);
+            device.booted = System.nanoTime();
+            if (logcat != null) {
+                try {
+                    logcat.collect(device.avd, adbDevice.getAdbClient());
+                } catch (IOException e) {
+                    System.out.println("Unable to collect the logcat of " + device.avd + ": " + e.getMessage());
+                }
+            }
+
+            if (!adbDevice.isInstalled(agent)) {
+                adbDevice.install(apkLocation, agent.getPackageName());
+            }
+            device.installed = System.nanoTime();
+            adbDevice.startActivity(agent.getPackageName(), agent.getLaunchableActivity());
+            device.ready = System.nanoTime();
+            System.out.println(device.getSerial() + " ready " + millis(device.ready - fleetStart)
+                    + " ms after the fleet was started");
+        } catch (Exception e) {
+            // interrupted when the emulator exits
+            device.failure = e instanceof InterruptedException ? new IOException("Emulator exited") : e;
+            System.out.println(device.getSerial() + " (" + device.avd + ") failed: " + device.failure.getMessage());
+        } finally {
+            synchronized (device) {
+                device.started = true;
+                Thread.interrupted();                   // the thread of the pool goes on to the next device
+            }
+        }
+    }
+
+    /**
+     * This method brings the agent up again on a device whose emulator was restarted by the supervisor.
+     */
+    private void recover(Device device, AdbDevice adbDevice) {
+        try {
+            adbDevice.waitForBoot(bootTimeout);
+            adbDevice.startActivity(agent.getPackageName(), agent.getLaunchableActivity());
+            System.out.println(device.getSerial() + " (" + device.avd + ") recovered");
+        } catch (Exception e) {
+            System.out.println(device.getSerial() + " (" + device.avd + ") not recovered: " + e.getMessage());
+        }
+    }
+
+    /**
+     * This method prints the time of each stage of every device and the time the whole fleet took to be ready.
+     */
+    private static void report(List<Device> devices, long fleetStart) {
+        List<Long> readyTimes = new ArrayList<>();
+        long wallTime = System.nanoTime() - fleetStart;
+
+        System.out.println(String.format("%-20s %-15s %10s %10s %10s %10s %10s", "AVD", "Serial", "Queued ms",
+                "Files ms", "Boot ms", "Install ms", "Ready ms"));
+        for (Device device : devices) {
+            if (device.failure != null) {
+                System.out.println(String.format("%-20s %-15s %s", device.avd, device.getSerial(),
+                        "failed: " + device.failure.getMessage()));
+                continue;
+            }
+            readyTimes.add(millis(device.ready - fleetStart));
+            System.out.println(String.format("%-20s %-15s %10d %10d %10d %10d %10d", device.avd, device.getSerial(),
+                    millis(device.launched - fleetStart), millis(device.filesCreated - device.launched),
+                    millis(device.booted - device.filesCreated), millis(device.installed - device.booted),
+                    millis(device.ready - fleetStart)));
+        }
+        if (readyTimes.isEmpty()) {
+            System.out.println("No device of the fleet is ready");
+            return;
+        }
+        Collections.sort(readyTimes);
+        System.out.println(readyTimes.size() + " of " + devices.size() + " devices ready in " + millis(wallTime)
+                + " ms (first " + readyTimes.get(0) + " ms, median " + readyTimes.get(readyTimes.size() / 2)
+                + " ms, last " + readyTimes.get(readyTimes.size() - 1) + " ms)");
+    }
+
+    /**
+     * This method records the time of each stage of every ready device and the time the fleet took.
+     */
+    private void record(List<Device> devices, long fleetStart) {
+        for (Device device : devices) {
+            if (device.failure == null) {
+                metrics.record("avd_files", device.getSerial(), device.filesCreated - device.launched);
+                metrics.record("boot", device.getSerial(), device.booted - device.filesCreated);
+                metrics.record("agent_install", device.getSerial(), device.installed - device.booted);
+                metrics.record("agent_launch", device.getSerial(), device.ready - device.installed);
+                metrics.record("device_ready", device.getSerial(), device.ready - fleetStart);
+            }
+        }
+        metrics.record("fleet_ready", String.valueOf(devices.size()), System.nanoTime() - fleetStart);
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * This class has the ports of a device of the fleet and the times its stages were completed at.
+     */
+    static class Device {
+        private String avd;
+        private int consolePort;
+        private long launched;
+        private long filesCreated;
+        private long booted;
+        private long installed;                         // the agent was installed, or found installed
+        private long ready;
+        private boolean started;                        // true once the device is ready or failed
+        private Exception failure;                      // null if the agent is running on the device
+        private EmulatorSupervisor.Supervised supervised;
+
+        private Device(String avd, int consolePort) {
+            this.avd = avd;
+            this.consolePort = consolePort;
+        }
+
+        String getAvd() {
+            return avd;
+        }
+
+        int getConsolePort() {
+            return consolePort;
+        }
+
+        int getAdbPort() {
+            return consolePort + 1;
+        }
+
+        String getSerial() {
+            return "emulator-" + consolePort;
+        }
+
+        boolean isReady() {
+            return failure == null;
+        }
+
+        boolean isRunning() {
+            return supervised != null && supervised.isRunning();
+        }
+
+        /**
+         * This method gives the number of times the supervisor restarted the emulator of the device.
+         *
+         * @return the number of restarts.
+         */
+        int getRestarts() {
+            return supervised == null ? 0 : supervised.getRestarts();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This class drains the output and the error streams of an emulator into a bounded buffer, so the emulator
+ * never blocks on a full pipe, and writes the buffered lines to the log file in batches on a background
+ * thread. When the buffer is full the oldest lines are dropped. The log file is rotated and compressed
+ * when it reaches the maximum size.
+ */
+class EmulatorLog {
+    private static final int BUFFER_LINES = 8192;
+    private static final int BATCH_LINES = 512;
+    private static final long FLUSH_MILLIS = 200;
+    private static final Object END = new Object();        // put after the last line
+
+    private File logFile;
+    private long maxBytes;                      // size of a log file before it is rotated
+    private int maxFiles;                       // number of compressed files kept besides the log file
+    private BlockingQueue<Object> buffer = new ArrayBlockingQueue<>(BUFFER_LINES);   // lines, then END
+    private AtomicLong dropped = new AtomicLong();
+    private List<Thread> drainers = new ArrayList<>();
+    private Thread writerThread;
+    private long written;                       // bytes in the current log file
+
+    EmulatorLog(File logFile, long maxBytes, int maxFiles) {
+        this.logFile = logFile;
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+    }
+
+    /**
+     * This method starts draining the output and the error streams of the process and writing them to the log.
+     *
+     * @param process  - the emulator process.
+     * @param name     - name of the threads, eg: the AVD.
+     * @param listener - receives each line as it is read, before it is buffered.
+     */
+    void attach(Process process, String name, Consumer<String> listener) {
+        writerThread = new Thread(this::write, name + "-log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        drain(process.getInputStream(), name + "-stdout", listener);
+        drain(process.getErrorStream(), name + "-stderr", listener);
+    }
+
+    /**
+     * This method waits until the streams of the process are closed and the buffered lines are written.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    void close() throws InterruptedException {
+        for (Thread drainer : drainers) {
+            drainer.join();
+        }
+        put(END);
+        writerThread.join();
+    }
+
+    private void drain(InputStream stream, String name, Consumer<String> listener) {
+        Thread drainer = new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+                String readLine;
+                while ((readLine = reader.readLine()) != null) {
+                    listener.accept(readLine);
+                    put(readLine);
+                }
+            } catch (IOException ignored) {
+                // the process is destroyed
+            }
+        }, name);
+        drainer.setDaemon(true);
+        drainer.start();
+        drainers.add(drainer);
+    }
+
+    /**
+     * This method adds the line to the buffer without blocking, dropping the oldest lines if it is full.
+     */
+    private void put(Object line) {
+        while (!buffer.offer(line)) {
+            if (buffer.poll() != null) {
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * This method writes the buffered lines in batches until the end of the log.
+     */
+    private void write() {
+        List<Object> batch = new ArrayList<>(BATCH_LINES);
+        Writer writer = null;
+        try {
+            writer = open();
+            while (true) {
+                Object first = buffer.poll(FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                buffer.drainTo(batch, BATCH_LINES - 1);
+
+                long droppedLines = dropped.getAndSet(0);
+                if (droppedLines > 0) {
+                    writer.write("[" + droppedLines + " lines dropped]\n");
+                }
+                for (Object item : batch) {
+                    if (item == END) {
+                        return;
+                    }
+                    String line = (String) item;
+                    writer.write(line);
+                    writer.write('\n');
+                    written += utf8Length(line) + 1;
+                    if (written >= maxBytes) {
+                        writer.close();
+                        rotate();
+                        writer = open();
+                    }
+                }
+                writer.flush();
+                batch.clear();
+            }
+        } catch (IOException e) {
+            System.out.println("Unable to write " + logFile + ": " + e.getMessage());
+        } catch (InterruptedException ignored) {
+            // stops writing
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignored) {
+                    // writer close exception ignored
+                }
+            }
+        }
+    }
+
+    /**
+     * This method counts the bytes of the line in UTF-8 without encoding it.
+     */
+    private static int utf8Length(String line) {
+        int length = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800 || Character.isSurrogate(c)) {
+                length += 2;                    // a surrogate pair is 4 bytes
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private Writer open() throws IOException {
+        written = 0;
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logFile), StandardCharsets.UTF_8),
+                64 * 1024);
+    }
+
+    /**
+     * This method compresses the full log file into log.1.gz, after shifting the older files up by one.
+     */
+    private void rotate() throws IOException {
+        Files.deleteIfExists(new File(logFile.getPath() + "." + maxFiles + ".gz").toPath());
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            File older = new File(logFile.getPath() + "." + i + ".gz");
+            if (older.isFile() && !older.renameTo(new File(logFile.getPath() + "." + (i + 1) + ".gz"))) {
+                throw new IOException("Unable to rotate " + older);
+            }
+        }
+        if (maxFiles > 0) {
+            try (InputStream in = new FileInputStream(logFile);
+                 OutputStream out = new GZIPOutputStream(new FileOutputStream(logFile.getPath() + ".1.gz"))) {
+                byte[] data = new byte[64 * 1024];
+                int read;
+                while ((read = in.read(data)) != -1) {
+                    out.write(data, 0, read);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * This class owns the emulator processes. It checks that each emulator is alive and responsive, restarts
+ * it with an exponential backoff when it exits or hangs, stops all of them when the JVM exits and reports
+ * the ratio of time the devices were up.
+ */
+class EmulatorSupervisor {
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+    private static final long DESTROY_GRACE_MILLIS = 10000;
+
+    private long checkMillis;                   // interval of the health checks
+    private int maxFailedChecks;                // failed checks in a row after which an emulator is hung
+    private long startTimeoutMillis;            // time an emulator has to become healthy after a launch
+    private long maxBackoffMillis;
+    private ScheduledExecutorService scheduler;
+    private ExecutorService processPool = Executors.newCachedThreadPool();
+    private ExecutorService recoveryPool;       // restores the device after a restart and destroys hung emulators
+    private List<Supervised> supervised = new CopyOnWriteArrayList<>();
+    private volatile boolean stopping;
+
+    EmulatorSupervisor(int threads, long checkMillis, int maxFailedChecks, long startTimeoutMillis,
+                       long maxBackoffMillis) {
+        this.checkMillis = checkMillis;
+        this.maxFailedChecks = maxFailedChecks;
+        this.startTimeoutMillis = startTimeoutMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        scheduler = Executors.newScheduledThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "emulator-supervisor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        recoveryPool = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "emulator-recovery");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "emulator-supervisor-shutdown"));
+    }
+
+    /**
+     * This method launches an emulator and keeps it running until the JVM exits.
+     *
+     * @param name        - name of the device in the reports.
+     * @param launcher    - creates the emulator for each launch.
+     * @param healthCheck - answers true if the device is responsive, it should time out by itself.
+     * @param recovery    - run after each restart, eg: to start the agent again, may be null.
+     * @return the supervised device.
+     */
+    Supervised supervise(String name, Supplier<TryItEmulator> launcher, Callable<Boolean> healthCheck,
+                         Runnable recovery) {
+        Supervised device = new Supervised(name, launcher, healthCheck, recovery);
+        supervised.add(device);
+        launch(device);
+        device.checks = scheduler.scheduleWithFixedDelay(() -> check(device), checkMillis, checkMillis,
+                TimeUnit.MILLISECONDS);
+        return device;
+    }
+
+    /**
+     * This method stops supervising the emulator and destroys it, so it is not restarted. It returns once the
+     * emulator exited, so its ports can be used again.
+     *
+     * @param device - the supervised device.
+     */
+    void release(Supervised device) {
+        destroy(detach(device));
+    }
+
+    /**
+     * This method stops supervising the emulator and leaves it running, so it is neither restarted nor destroyed
+     * when the JVM exits.
+     *
+     * @param device - the supervised device.
+     * @return the emulator left running.
+     */
+    TryItEmulator detach(Supervised device) {
+        TryItEmulator emulator;
+        synchronized (device) {
+            device.released = true;
+            emulator = device.emulator;
+        }
+        supervised.remove(device);
+        device.checks.cancel(false);
+        return emulator;
+    }
+
+    /**
+     * This method prints the reports periodically.
+     *
+     * @param intervalMillis - interval of the reports.
+     */
+    void reportEvery(long intervalMillis) {
+        scheduler.scheduleAtFixedRate(this::report, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * This method launches the emulator of the device, unless the device was released.
+     *
+     * @return true if the emulator was launched.
+     */
+    private boolean launch(Supervised device) {
+        TryItEmulator emulator = device.launcher.get();
+        emulator.getEvents().subscribe(event -> {
+            if (event.getType() == EmulatorEvent.Type.PROCESS_EXITED) {
+                onExit(device, emulator, event.getLine());
+            }
+        });
+        synchronized (device) {
+            if (device.released) {
+                return false;
+            }
+            device.emulator = emulator;
+            device.running = true;
+            device.launchedAt = System.nanoTime();
+            device.healthy = false;
+            device.failedChecks = 0;
+        }
+        processPool.execute(emulator);
+        return true;
+    }
+
+    /**
+     * This method schedules the restart of an emulator which exited.
+     */
+    private void onExit(Supervised device, TryItEmulator emulator, String exitCode) {
+        long backoff;
+        synchronized (device) {
+            if (device.emulator != emulator) {
+                return;
+            }
+            device.running = false;
+            device.markDown();
+            if (stopping || device.released) {
+                return;
+            }
+            backoff = device.backoffMillis;
+            device.backoffMillis = Math.min(maxBackoffMillis, backoff * 2);
+            device.restarts++;
+        }
+        System.out.println(device.name + " exited with code " + exitCode + ", restarting in " + backoff + " ms");
+        scheduler.schedule(() -> {
+            if (stopping) {
+                return;
+            }
+            if (launch(device) && device.recovery != null) {
+                recoveryPool.execute(device.recovery);
+            }
+        }, backoff, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * This method runs the health check of the device and destroys the emulator if it is hung, which restarts it.
+     */
+    private void check(Supervised device) {
+        TryItEmulator emulator;
+        synchronized (device) {
+            if (!device.running || device.released || stopping) {
+                return;
+            }
+            emulator = device.emulator;
+        }
+        boolean healthy;
+        try {
+            healthy = device.healthCheck.call();
+        } catch (Exception e) {
+            healthy = false;
+        }
+
+        long now = System.nanoTime();
+        synchronized (device) {
+            if (device.emulator != emulator || !device.running) {
+                return;
+            }
+            if (healthy) {
+                device.healthy = true;
+                device.failedChecks = 0;
+                if (device.upSince == 0) {
+                    device.upSince = now;
+                }
+                // an emulator which stayed up is restarted with the initial backoff the next time
+                if (now - device.upSince > TimeUnit.MILLISECONDS.toNanos(maxBackoffMillis)) {
+                    device.backoffMillis = INITIAL_BACKOFF_MILLIS;
+                }
+                return;
+            }
+            device.markDown();
+            boolean booting = !device.healthy
+                    && now - device.launchedAt < TimeUnit.MILLISECONDS.toNanos(startTimeoutMillis);
+            if (booting || ++device.failedChecks < maxFailedChecks) {
+                return;
+            }
+        }
+        System.out.println(device.name + " is not responding, destroying the emulator");
+        recoveryPool.execute(() -> destroy(emulator));
+    }
+
+    /**
+     * This method prints the uptime of each device and of the whole fleet.
+     */
+    void report() {
+        long now = System.nanoTime();
+        long totalUp = 0;
+        long totalSupervised = 0;
+        for (Supervised device : supervised) {
+            long up;
+            long restarts;
+            synchronized (device) {
+                up = device.upNanos + (device.upSince == 0 ? 0 : now - device.upSince);
+                restarts = device.restarts;
+            }
+            long total = now - device.supervisedSince;
+            totalUp += up;
+            totalSupervised += total;
+            System.out.println(String.format("%-20s up %5.1f%% of %d s, %d restarts", device.name,
+                    100.0 * up / total, TimeUnit.NANOSECONDS.toSeconds(total), restarts));
+        }
+        if (totalSupervised > 0) {
+            System.out.println(String.format("Device uptime ratio %.3f", (double) totalUp / totalSupervised));
+        }
+    }
+
+    /**
+     * This method stops all the emulators and prints the final report, it runs when the JVM exits.
+     */
+    void shutdown() {
+        if (stopping) {
+            return;
+        }
+        stopping = true;
+        scheduler.shutdownNow();
+        ExecutorService destroyPool = Executors.newCachedThreadPool();
+        for (Supervised device : supervised) {
+            TryItEmulator emulator;
+            synchronized (device) {
+                emulator = device.emulator;
+            }
+            destroyPool.execute(() -> destroy(emulator));
+        }
+        destroyPool.shutdown();
+        try {
+            destroyPool.awaitTermination(2 * DESTROY_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ignored) {
+            // exits anyway
+        }
+        report();
+    }
+
+    private static void destroy(TryItEmulator emulator) {
+        try {
+            emulator.destroy(DESTROY_GRACE_MILLIS);
+        } catch (InterruptedException ignored) {
+            // left to the shutdown of the JVM
+        }
+    }
+
+    /**
+     * This class has the state of a supervised emulator, guarded by the instance.
+     */
+    static class Supervised {
+        private String name;
+        private Supplier<TryItEmulator> launcher;
+        private Callable<Boolean> healthCheck;
+        private Runnable recovery;
+        private TryItEmulator emulator;         // the current launch
+        private boolean running;
+        private long launchedAt;
+        private boolean healthy;                // true once a health check of the current launch passed
+        private long supervisedSince = System.nanoTime();
+        private long upSince;                   // 0 if not up
+        private long upNanos;                   // time up before upSince
+        private int failedChecks;
+        private long backoffMillis = INITIAL_BACKOFF_MILLIS;
+        private int restarts;
+        private boolean released;               // true once the emulator is stopped for good
+        private ScheduledFuture<?> checks;
+
+        private Supervised(String name, Supplier<TryItEmulator> launcher, Callable<Boolean> healthCheck,
+                           Runnable recovery) {
+            this.name = name;
+            this.launcher = launcher;
+            this.healthCheck = healthCheck;
+            this.recovery = recovery;
+        }
+
+        private void markDown() {
+            if (upSince != 0) {
+                upNanos += System.nanoTime() - upSince;
+                upSince = 0;
+            }
+        }
+
+        synchronized int getRestarts() {
+            return restarts;
+        }
+
+        synchronized boolean isRunning() {
+            return running;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is a trace of GPS, battery or sensor readings, as the emulator console commands which replay
+ * them, ordered by the time they are due. A trace file has one reading a line, as comma separated values
+ * which start with the time of the reading in milliseconds. Empty lines and lines starting with # are
+ * skipped.
+ * <ul>
+ * <li>GPS: time,latitude,longitude[,altitude[,satellites[,speed in knots]]]</li>
+ * <li>battery: time,capacity[,status[,ac]], eg: 1000,80,discharging,off</li>
+ * <li>sensor: time,sensor,value[,value[,value]], eg: 20,acceleration,0.1,9.8,0.2</li>
+ * </ul>
+ */
+class EmulatorTrace {
+    private static final List<String> BATTERY_STATUSES = Arrays.asList("unknown", "charging", "discharging",
+            "not-charging", "full");
+
+    private List<Entry> entries;
+
+    private EmulatorTrace(List<Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * This enum has the kinds of trace, each with the console commands of a reading.
+     */
+    enum Kind {
+        GPS, BATTERY, SENSOR;
+
+        private List<String> toCommands(String[] values) throws IOException {
+            switch (this) {
+                case GPS:
+                    number(values, 1);
+                    number(values, 2);
+                    // the console takes the longitude first
+                    StringBuilder fix = new StringBuilder("geo fix ").append(values[2]).append(' ').append(values[1]);
+                    for (int i = 3; i < values.length && i < 6; i++) {
+                        number(values, i);
+                        fix.append(' ').append(values[i]);
+                    }
+                    return Collections.singletonList(fix.toString());
+                case BATTERY:
+                    List<String> commands = new ArrayList<>();
+                    commands.add("power capacity " + (int) number(values, 1));
+                    if (values.length > 2) {
+                        if (!BATTERY_STATUSES.contains(values[2])) {
+                            throw new IOException("Unknown battery status " + values[2]);
+                        }
+                        commands.add("power status " + values[2]);
+                    }
+                    if (values.length > 3) {
+                        if (!values[3].equals("on") && !values[3].equals("off")) {
+                            throw new IOException("The ac must be on or off");
+                        }
+                        commands.add("power ac " + values[3]);
+                    }
+                    return commands;
+                default:
+                    if (values.length < 3) {
+                        throw new IOException("A sensor reading needs a sensor and a value");
+                    }
+                    StringBuilder sensor = new StringBuilder("sensor set ").append(values[1]).append(' ');
+                    for (int i = 2; i < values.length; i++) {
+                        number(values, i);
+                        sensor.append(i == 2 ? "" : ":").append(values[i]);
+                    }
+                    return Collections.singletonList(sensor.toString());
+            }
+        }
+    }
+
+    /**
+     * This method reads a trace file.
+     *
+     * @param file   - the trace file.
+     * @param kind   - kind of the readings in the file.
+     * @param rateHz - readings per second to replay at regardless of their times, 0 to keep their times.
+     * @return the trace.
+     * @throws IOException if the file cannot be read or has an invalid line.
+     */
+    static EmulatorTrace read(File file, Kind kind, double rateHz) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        int lineNumber = 0;
+        int readings = 0;
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            lineNumber++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            String[] values = trimmed.split("\\s*,\\s*");
+            try {
+                long timeNanos = rateHz > 0 ? (long) (readings++ * TimeUnit.SECONDS.toNanos(1) / rateHz)
+                        : (long) (number(values, 0) * TimeUnit.MILLISECONDS.toNanos(1));
+                for (String command : kind.toCommands(values)) {
+                    entries.add(new Entry(timeNanos, command));
+                }
+            } catch (IOException e) {
+                throw new IOException("Invalid line " + lineNumber + " of " + file + ": " + e.getMessage(), e);
+            }
+        }
+        entries.sort(Comparator.comparingLong(entry -> entry.timeNanos));
+        return new EmulatorTrace(entries);
+    }
+
+    /**
+     * This method merges traces into one, eg: to replay the GPS and the sensors of a device together.
+     *
+     * @param traces - the traces.
+     * @return the merged trace.
+     */
+    static EmulatorTrace merge(List<EmulatorTrace> traces) {
+        List<Entry> entries = new ArrayList<>();
+        for (EmulatorTrace trace : traces) {
+            entries.addAll(trace.entries);
+        }
+        entries.sort(Comparator.comparingLong(entry -> entry.timeNanos));
+        return new EmulatorTrace(entries);
+    }
+
+    private static double number(String[] values, int index) throws IOException {
+        if (index >= values.length) {
+            throw new IOException("Expected " + (index + 1) + " values");
+        }
+        try {
+            return Double.parseDouble(values[index]);
+        } catch (NumberFormatException e) {
+            throw new IOException(values[index] + " is not a number");
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * This method gives the time the command is due at, from the start of the trace.
+     *
+     * @param index - index of the command.
+     * @return the time in nanoseconds.
+     */
+    long getTimeNanos(int index) {
+        return entries.get(index).timeNanos;
+    }
+
+    String getCommand(int index) {
+        return entries.get(index).command;
+    }
+
+    /**
+     * This class is a console command and the time it is due at.
+     */
+    private static class Entry {
+        private long timeNanos;
+        private String command;
+
+        private Entry(long timeNanos, String command) {
+            this.timeNanos = timeNanos;
+            this.command = command;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * This class has the cores, the memory and the disk space of the host, read from /proc on linux and from the
+ * JVM elsewhere.
+ */
+class HostResources {
+    private static final File MEMINFO = new File("/proc/meminfo");
+    private static final File CPUINFO = new File("/proc/cpuinfo");
+
+    private int cores;
+    private long totalMemoryMb;
+    private long availableMemoryMb;             // memory which can be used without swapping
+    private long freeDiskMb;
+
+    HostResources(int cores, long totalMemoryMb, long availableMemoryMb, long freeDiskMb) {
+        this.cores = cores;
+        this.totalMemoryMb = totalMemoryMb;
+        this.availableMemoryMb = availableMemoryMb;
+        this.freeDiskMb = freeDiskMb;
+    }
+
+    /**
+     * This method reads the resources of the host.
+     *
+     * @param avdHome - folder of the AVDs, whose file system holds the data partitions.
+     * @return the resources.
+     */
+    static HostResources read(File avdHome) {
+        int cores = Runtime.getRuntime().availableProcessors();     // limited by the affinity and the cgroup
+        long totalMemoryMb = 0;
+        long availableMemoryMb = 0;
+
+        try {
+            if (CPUINFO.isFile()) {
+                int processors = 0;
+                for (String line : Files.readAllLines(CPUINFO.toPath(), StandardCharsets.UTF_8)) {
+                    if (line.startsWith("processor")) {
+                        processors++;
+                    }
+                }
+                if (processors > 0) {
+                    cores = Math.min(cores, processors);
+                }
+            }
+            if (MEMINFO.isFile()) {
+                List<String> lines = Files.readAllLines(MEMINFO.toPath(), StandardCharsets.UTF_8);
+                totalMemoryMb = meminfo(lines, "MemTotal:");
+                availableMemoryMb = meminfo(lines, "MemAvailable:");
+                if (availableMemoryMb == 0) {
+                    // kernels before 3.14 have no MemAvailable
+                    availableMemoryMb = meminfo(lines, "MemFree:") + meminfo(lines, "Cached:");
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Unable to read the host resources from /proc: " + e.getMessage());
+        }
+        if (totalMemoryMb == 0) {
+            totalMemoryMb = osBeanMb("getTotalPhysicalMemorySize");
+            availableMemoryMb = osBeanMb("getFreePhysicalMemorySize");
+        }
+
+        File disk = avdHome;
+        while (disk != null && !disk.exists()) {
+            disk = disk.getParentFile();
+        }
+        long freeDiskMb = disk == null ? 0 : disk.getUsableSpace() / (1024 * 1024);
+        return new HostResources(cores, totalMemoryMb, availableMemoryMb, freeDiskMb);
+    }
+
+    /**
+     * This method reads a value of /proc/meminfo, eg: "MemTotal:       16303080 kB".
+     */
+    private static long meminfo(List<String> lines, String key) {
+        for (String line : lines) {
+            if (line.startsWith(key)) {
+                String value = line.substring(key.length()).trim();
+                int space = value.indexOf(' ');
+                return Long.parseLong(space < 0 ? value : value.substring(0, space)) / 1024;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * This method reads the memory from the extended operating system bean of the JVM, if it has one.
+     */
+    private static long osBeanMb(String getter) {
+        OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        try {
+            Method method = Class.forName("com.sun.management.OperatingSystemMXBean").getMethod(getter);
+            return (Long) method.invoke(bean) / (1024 * 1024);
+        } catch (ReflectiveOperationException | ClassCastException | IllegalArgumentException e) {
+            return 0;
+        }
+    }
+
+    int getCores() {
+        return cores;
+    }
+
+    long getTotalMemoryMb() {
+        return totalMemoryMb;
+    }
+
+    long getAvailableMemoryMb() {
+        return availableMemoryMb;
+    }
+
+    long getFreeDiskMb() {
+        return freeDiskMb;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class chooses how the emulator is launched: with a window, or headless on a server without a window,
+ * audio or boot animation and with software GPU rendering, and on linux, with KVM acceleration if the user
+ * can use /dev/kvm.
+ */
+class LaunchProfile {
+    static final String HEADLESS = "headless";
+    static final String DESKTOP = "desktop";
+    static final String SOFTWARE_GPU = "swiftshader_indirect";
+    private static final File KVM = new File("/dev/kvm");
+
+    private boolean headless;
+    private String accelerator;                 // value of -accel, null to leave it to the emulator
+    private String gpu;                         // value of -gpu, null to leave it to the emulator
+    private String acceleratorProblem;          // why KVM cannot be used, null if it can
+
+    LaunchProfile(boolean headless, String accelerator, String gpu, String acceleratorProblem) {
+        this.headless = headless;
+        this.accelerator = accelerator;
+        this.gpu = gpu;
+        this.acceleratorProblem = acceleratorProblem;
+    }
+
+    /**
+     * This method chooses the profile of the host. Linux without a display is headless by default, mac os and
+     * windows use HAXM, which the emulator finds by itself.
+     *
+     * @param osSuffix - the operating system, as in the SDK folders.
+     * @param profile  - headless or desktop, null for the default of the host.
+     * @param gpu      - GPU mode of the headless profile, null for software rendering.
+     * @return the profile.
+     */
+    static LaunchProfile forHost(String osSuffix, String profile, String gpu) {
+        boolean linux = !osSuffix.equals(Constants.MAC_OS) && !osSuffix.equals(Constants.WINDOWS_OS);
+        boolean headless = profile == null ? linux && System.getenv("DISPLAY") == null : profile.equals(HEADLESS);
+        String accelerator = null;
+        String problem = null;
+        if (linux) {
+            problem = probeKvm(KVM);
+            accelerator = problem == null ? "on" : "off";
+        }
+        return new LaunchProfile(headless, accelerator, headless ? (gpu == null ? SOFTWARE_GPU : gpu) : gpu, problem);
+    }
+
+    /**
+     * This method checks that KVM is available and that the user can open it, as the emulator does.
+     *
+     * @param kvm - the KVM device.
+     * @return why KVM cannot be used, or null if it can.
+     */
+    static String probeKvm(File kvm) {
+        if (!kvm.exists()) {
+            return kvm + " does not exist, enable virtualization in the BIOS and load the kvm module";
+        }
+        try {
+            new RandomAccessFile(kvm, "rw").close();
+            return null;
+        } catch (IOException e) {
+            return kvm + " cannot be opened (" + e.getMessage() + "), add the user to the kvm group";
+        }
+    }
+
+    /**
+     * This method gives the emulator options of the profile, put before the options of the start.
+     *
+     * @return the options.
+     */
+    List<String> getEmulatorOptions() {
+        List<String> options = new ArrayList<>();
+        if (headless) {
+            options.addAll(Arrays.asList("-no-window", "-no-audio", "-no-boot-anim"));
+        }
+        if (gpu != null) {
+            options.addAll(Arrays.asList("-gpu", gpu));
+        }
+        if (accelerator != null) {
+            options.addAll(Arrays.asList("-accel", accelerator));
+        }
+        return options;
+    }
+
+    /**
+     * This method prints the profile, and why the emulator runs without acceleration if it does.
+     */
+    void report() {
+        System.out.println("Launch profile: " + (headless ? HEADLESS : DESKTOP)
+                + (accelerator == null ? "" : ", KVM acceleration " + accelerator)
+                + (gpu == null ? "" : ", GPU " + gpu));
+        if (acceleratorProblem != null) {
+            System.out.println("WARNING: " + acceleratorProblem + ", the emulator will be very slow");
+        }
+    }
+}
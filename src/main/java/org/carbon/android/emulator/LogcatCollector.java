@@ -0,0 +1,230 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Year;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class streams the logcat of each device into a store of its own, in the binary format where the device
+ * supports it and in the threadtime text format otherwise. A device which restarts is streamed again once it
+ * is back. Only the buffer which logcat replays on connecting is checked against the entries already stored;
+ * live entries are all stored, as their times may repeat or go back across threads and buffers.
+ */
+class LogcatCollector {
+    private static final long FLUSH_MILLIS = 5000;      // longest time an entry waits before a query finds it
+    private static final long MAX_RETRY_MILLIS = 30000;
+
+    private File folder;
+    private long maxBytes;
+    private Map<String, Stream> streams = new ConcurrentHashMap<>();
+    private ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "logcat-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * This method sets up the collection of the logs.
+     *
+     * @param folder   - folder of the stores, with a folder for each device.
+     * @param maxBytes - maximum size of the store of a device.
+     */
+    LogcatCollector(File folder, long maxBytes) {
+        this.folder = folder;
+        this.maxBytes = maxBytes;
+        flusher.scheduleWithFixedDelay(this::flushAll, FLUSH_MILLIS, FLUSH_MILLIS / 5, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * This method starts streaming the logcat of the device, unless it is streamed already.
+     *
+     * @param name   - name of the device, eg: the AVD.
+     * @param client - adb client of the device.
+     * @throws IOException if the store of the device cannot be opened.
+     */
+    void collect(String name, AdbClient client) throws IOException {
+        if (streams.containsKey(name)) {
+            return;
+        }
+        Stream stream = new Stream(name, client, new LogcatStore(new File(folder, name), maxBytes));
+        streams.put(name, stream);
+        Thread thread = new Thread(stream::run, name + "-logcat");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * This method stops streaming and writes the entries in memory to the stores.
+     */
+    void stop() {
+        flusher.shutdownNow();
+        for (Stream stream : streams.values()) {
+            stream.stop();
+        }
+    }
+
+    private void flushAll() {
+        for (Stream stream : streams.values()) {
+            try {
+                stream.store.flushOlderThan(FLUSH_MILLIS);
+            } catch (IOException e) {
+                System.out.println("Unable to write the logcat of " + stream.name + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * This class streams the logcat of a device into its store, connecting again when the device goes away.
+     */
+    private static class Stream {
+        private String name;
+        private AdbClient client;
+        private LogcatStore store;
+        private boolean binary = true;          // false once the device fails to run logcat -B
+        private long lastTime;                  // time of the newest entry stored
+        private boolean replaying;              // true until the first entry newer than lastTime is read
+        private long connectionEntries;         // entries stored from the current connection
+        private volatile Socket socket;
+        private volatile boolean stopped;
+
+        private Stream(String name, AdbClient client, LogcatStore store) {
+            this.name = name;
+            this.client = client;
+            this.store = store;
+        }
+
+        private void run() {
+            long retryMillis = 1000;
+            try {
+                lastTime = store.getLastTimeNanos();
+            } catch (IOException e) {
+                System.out.println("Unable to read the logcat store of " + name + ": " + e.getMessage());
+            }
+            while (!stopped) {
+                connectionEntries = 0;
+                replaying = true;
+                try {
+                    if (binary) {
+                        readBinary();
+                    } else {
+                        readText();
+                    }
+                } catch (IOException e) {
+                    if (binary && connectionEntries == 0 && client.isDeviceOnline() && !stopped) {
+                        System.out.println("Binary logcat of " + name + " is not available (" + e.getMessage()
+                                + "), reading the text format");
+                        binary = false;
+                        continue;
+                    }
+                }
+                if (stopped) {
+                    break;
+                }
+                // the device went away, eg: restarted by the supervisor
+                retryMillis = connectionEntries > 0 ? 1000 : Math.min(retryMillis * 2, MAX_RETRY_MILLIS);
+                try {
+                    Thread.sleep(retryMillis);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * This method stores the entries of logcat -B until the connection is closed.
+         */
+        private void readBinary() throws IOException {
+            try (Socket connection = client.openExec("logcat -B", 0)) {
+                socket = connection;
+                DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream(),
+                        64 * 1024));
+                LogcatEntry entry;
+                while ((entry = LogcatEntry.readBinary(in)) != null) {
+                    store(entry);
+                }
+            }
+        }
+
+        /**
+         * This method stores the entries of logcat -v threadtime until the connection is closed. The lines
+         * which do not start an entry are skipped.
+         */
+        private void readText() throws IOException {
+            int year = Year.now().getValue();
+            try (Socket connection = client.openShell("logcat -v threadtime", 0)) {
+                socket = connection;
+                BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(),
+                        StandardCharsets.UTF_8), 64 * 1024);
+                String readLine;
+                while ((readLine = reader.readLine()) != null) {
+                    LogcatEntry entry = LogcatEntry.parseThreadtime(readLine.trim(), year);
+                    if (entry != null) {
+                        store(entry);
+                    }
+                }
+            }
+        }
+
+        /**
+         * This method stores the entry. As logcat starts with its whole buffer, the entries up to the first one
+         * newer than the newest stored entry are taken as stored before and skipped.
+         */
+        private void store(LogcatEntry entry) throws IOException {
+            if (replaying) {
+                if (entry.getTimeNanos() <= lastTime) {
+                    return;
+                }
+                replaying = false;
+            }
+            lastTime = Math.max(lastTime, entry.getTimeNanos());
+            store.append(entry);
+            connectionEntries++;
+        }
+
+        private void stop() {
+            stopped = true;
+            Socket connection = socket;
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (IOException ignored) {
+                    // the stream ends
+                }
+            }
+            try {
+                store.close();
+            } catch (IOException e) {
+                System.out.println("Unable to write the logcat of " + name + ": " + e.getMessage());
+            }
+        }
+    }
+}
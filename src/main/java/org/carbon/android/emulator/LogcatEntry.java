@@ -0,0 +1,191 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class is an entry of the device log, read from the binary logcat format or from the threadtime
+ * text format of older devices.
+ */
+class LogcatEntry {
+    private static final int V1_HEADER_SIZE = 20;           // logger_entry without the header size field
+    private static final int MAX_HEADER_SIZE = 32;
+    private static final int MAX_PAYLOAD = 64 * 1024;        // entries are at most 4 KB
+    private static final int MAX_MESSAGE = 16 * 1024;       // keeps the message within a writeUTF
+    private static final int MAX_TAG = 1024;
+    private static final String PRIORITIES = "??VDIWEFS";
+    private static final Pattern THREADTIME = Pattern.compile(
+            "(\\d\\d)-(\\d\\d) (\\d\\d):(\\d\\d):(\\d\\d)\\.(\\d{3})\\s+(\\d+)\\s+(\\d+) ([VDIWEFS]) (.*?)\\s*: (.*)");
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS")
+            .withZone(ZoneId.systemDefault());
+
+    private long timeNanos;                     // since the epoch
+    private int pid;
+    private int tid;
+    private int priority;                       // 2 (verbose) to 7 (assert)
+    private String tag;
+    private String message;
+
+    LogcatEntry(long timeNanos, int pid, int tid, int priority, String tag, String message) {
+        this.timeNanos = timeNanos;
+        this.pid = pid;
+        this.tid = tid;
+        this.priority = priority;
+        this.tag = tag.length() > MAX_TAG ? tag.substring(0, MAX_TAG) : tag;
+        this.message = message.length() > MAX_MESSAGE ? message.substring(0, MAX_MESSAGE) : message;
+    }
+
+    /**
+     * This method reads an entry of the binary format of logcat -B, a little endian logger_entry followed
+     * by the priority, the tag and the message.
+     *
+     * @param in - the output of logcat -B.
+     * @return the entry, or null at the end of the log.
+     * @throws IOException if the log cannot be read or is not in the binary format.
+     */
+    static LogcatEntry readBinary(DataInputStream in) throws IOException {
+        byte[] header = new byte[MAX_HEADER_SIZE];
+        try {
+            in.readFully(header, 0, 4);
+        } catch (EOFException e) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+        int payloadSize = buffer.getShort(0) & 0xffff;
+        int headerSize = buffer.getShort(2) & 0xffff;
+        if (headerSize == 0) {
+            headerSize = V1_HEADER_SIZE;
+        }
+        if (headerSize < V1_HEADER_SIZE || headerSize > MAX_HEADER_SIZE || payloadSize > MAX_PAYLOAD) {
+            throw new IOException("Not a binary log entry, header size " + headerSize);
+        }
+        in.readFully(header, 4, headerSize - 4);
+        int pid = buffer.getInt(4);
+        int tid = buffer.getInt(8);
+        long timeNanos = TimeUnit.SECONDS.toNanos(buffer.getInt(12) & 0xffffffffL) + buffer.getInt(16);
+        byte[] payload = new byte[payloadSize];
+        in.readFully(payload);
+
+        int priority = payloadSize > 0 ? payload[0] : 0;
+        int tagEnd = 1;
+        while (tagEnd < payloadSize && payload[tagEnd] != 0) {
+            tagEnd++;
+        }
+        int messageEnd = payloadSize;
+        while (messageEnd > tagEnd + 1 && (payload[messageEnd - 1] == 0 || payload[messageEnd - 1] == '\n')) {
+            messageEnd--;
+        }
+        String tag = payloadSize > 1 ? new String(payload, 1, tagEnd - 1, StandardCharsets.UTF_8) : "";
+        String message = messageEnd > tagEnd + 1
+                ? new String(payload, tagEnd + 1, messageEnd - tagEnd - 1, StandardCharsets.UTF_8) : "";
+        return new LogcatEntry(timeNanos, pid, tid, priority, tag, message);
+    }
+
+    /**
+     * This method parses a line of logcat -v threadtime, eg: "10-17 12:34:56.789  1234  1256 I Tag: message".
+     * The line has no year and is in the time zone of the device, which is taken as the one of the host.
+     *
+     * @param line - the line.
+     * @param year - the year of the log.
+     * @return the entry, or null if the line is not the start of an entry.
+     */
+    static LogcatEntry parseThreadtime(String line, int year) {
+        Matcher matcher = THREADTIME.matcher(line);
+        if (!matcher.matches()) {
+            return null;
+        }
+        LocalDateTime time = LocalDateTime.of(year, Integer.parseInt(matcher.group(1)),
+                Integer.parseInt(matcher.group(2)), Integer.parseInt(matcher.group(3)),
+                Integer.parseInt(matcher.group(4)), Integer.parseInt(matcher.group(5)),
+                (int) TimeUnit.MILLISECONDS.toNanos(Integer.parseInt(matcher.group(6))));
+        Instant instant = time.atZone(ZoneId.systemDefault()).toInstant();
+        return new LogcatEntry(TimeUnit.SECONDS.toNanos(instant.getEpochSecond()) + instant.getNano(),
+                Integer.parseInt(matcher.group(7)), Integer.parseInt(matcher.group(8)),
+                PRIORITIES.indexOf(matcher.group(9).charAt(0)), matcher.group(10), matcher.group(11));
+    }
+
+    /**
+     * This method writes the entry in the format of the log store.
+     *
+     * @param out - the block of the store.
+     * @throws IOException if the entry cannot be written.
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeLong(timeNanos);
+        out.writeInt(pid);
+        out.writeInt(tid);
+        out.writeByte(priority);
+        out.writeUTF(tag);
+        out.writeUTF(message);
+    }
+
+    /**
+     * This method reads an entry written by {@link #write(DataOutput)}.
+     *
+     * @param in - the block of the store.
+     * @return the entry.
+     * @throws IOException if the entry cannot be read.
+     */
+    static LogcatEntry read(DataInput in) throws IOException {
+        return new LogcatEntry(in.readLong(), in.readInt(), in.readInt(), in.readByte(), in.readUTF(), in.readUTF());
+    }
+
+    long getTimeNanos() {
+        return timeNanos;
+    }
+
+    int getPid() {
+        return pid;
+    }
+
+    String getTag() {
+        return tag;
+    }
+
+    String getMessage() {
+        return message;
+    }
+
+    /**
+     * This method formats the entry like logcat -v threadtime, with the year.
+     *
+     * @return the line.
+     */
+    @Override
+    public String toString() {
+        char level = priority >= 0 && priority < PRIORITIES.length() ? PRIORITIES.charAt(priority) : '?';
+        return String.format("%s %5d %5d %c %s: %s", TIME_FORMAT.format(Instant.ofEpochSecond(0, timeNanos)), pid,
+                tid, level, tag, message);
+    }
+}
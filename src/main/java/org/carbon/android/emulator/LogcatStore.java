@@ -0,0 +1,387 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * This class keeps the log of a device on disk in segments of compressed blocks. Each block is compressed on
+ * its own, and the index of a segment has the time range, the tags and the pids of each block, so a query
+ * reads the indexes and inflates only the blocks which can hold matching entries. Only the block being
+ * filled is kept in memory, and the oldest segments are deleted to keep the store within its maximum size.
+ */
+class LogcatStore implements Closeable {
+    private static final int BLOCK_BYTES = 64 * 1024;       // entries of a block before it is compressed
+    private static final int SEGMENT_BLOCKS = 64;
+    private static final String SEGMENT_EXTENSION = ".seg";
+    private static final String INDEX_EXTENSION = ".idx";
+
+    private File folder;
+    private long maxBytes;
+    private int segment;                        // number of the segment being written
+    private FileOutputStream segmentOut;        // null until the segment has a block
+    private DataOutputStream indexOut;
+    private long segmentOffset;
+    private int segmentBlocks;
+    private ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_BYTES + 8192);
+    private DataOutputStream blockOut = new DataOutputStream(block);
+    private BlockIndex blockIndex = new BlockIndex();
+    private long blockStart;                    // System.nanoTime() of the first entry of the block
+    private Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private boolean closed;
+
+    /**
+     * This method opens the store in the folder. The entries appended go to a new segment after the ones
+     * already there, which is created with its first block.
+     *
+     * @param folder   - folder of the store.
+     * @param maxBytes - maximum size of the segments and indexes on disk.
+     * @throws IOException if the folder cannot be created.
+     */
+    LogcatStore(File folder, long maxBytes) throws IOException {
+        this.folder = folder;
+        this.maxBytes = maxBytes;
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Unable to create " + folder);
+        }
+        List<Integer> segments = segments();
+        segment = segments.isEmpty() ? 1 : segments.get(segments.size() - 1) + 1;
+    }
+
+    /**
+     * This method adds an entry to the block being filled, compressing the block when it is full.
+     *
+     * @param entry - the entry.
+     * @throws IOException if the block cannot be written.
+     */
+    synchronized void append(LogcatEntry entry) throws IOException {
+        if (closed) {
+            throw new IOException("The logcat store of " + folder + " is closed");
+        }
+        if (blockIndex.count == 0) {
+            blockStart = System.nanoTime();
+        }
+        entry.write(blockOut);
+        blockIndex.add(entry);
+        if (block.size() >= BLOCK_BYTES) {
+            flush();
+        }
+    }
+
+    /**
+     * This method compresses the block being filled if its first entry is older than the given age, so recent
+     * entries become visible to queries on a quiet log.
+     *
+     * @param maxAgeMillis - maximum time an entry waits in memory.
+     * @throws IOException if the block cannot be written.
+     */
+    synchronized void flushOlderThan(long maxAgeMillis) throws IOException {
+        if (blockIndex.count > 0 && System.nanoTime() - blockStart >= TimeUnit.MILLISECONDS.toNanos(maxAgeMillis)) {
+            flush();
+        }
+    }
+
+    /**
+     * This method compresses the block being filled to the segment and adds it to the index of the segment.
+     *
+     * @throws IOException if the block cannot be written.
+     */
+    synchronized void flush() throws IOException {
+        if (closed || blockIndex.count == 0) {
+            return;
+        }
+        deflater.reset();
+        deflater.setInput(block.toByteArray());
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(block.size() / 4);
+        byte[] data = new byte[16 * 1024];
+        while (!deflater.finished()) {
+            compressed.write(data, 0, deflater.deflate(data));
+        }
+        if (segmentOut == null) {
+            openSegment();
+        }
+        // the block is written before its index, so a block found in an index is always complete
+        compressed.writeTo(segmentOut);
+        segmentOut.flush();
+        blockIndex.offset = segmentOffset;
+        blockIndex.length = compressed.size();
+        blockIndex.write(indexOut);
+        indexOut.flush();
+
+        segmentOffset += compressed.size();
+        block.reset();
+        blockIndex = new BlockIndex();
+        if (++segmentBlocks >= SEGMENT_BLOCKS) {
+            closeSegment();
+            segment++;
+            deleteOldest();
+        }
+    }
+
+    /**
+     * This method finds the entries of a time range with the tag and the pid, oldest segment first. The entries
+     * of the block being filled are not found until it is flushed.
+     *
+     * @param tag       - the tag, null for any.
+     * @param pid       - the pid, 0 for any.
+     * @param fromNanos - start of the range since the epoch, inclusive.
+     * @param toNanos   - end of the range since the epoch, exclusive.
+     * @param consumer  - receives the matching entries.
+     * @return the number of matching entries.
+     * @throws IOException if a segment cannot be read.
+     */
+    long query(String tag, int pid, long fromNanos, long toNanos, Consumer<LogcatEntry> consumer) throws IOException {
+        long matched = 0;
+        Inflater inflater = new Inflater();
+        try {
+            for (int number : segments()) {
+                List<BlockIndex> blocks = new ArrayList<>();
+                for (BlockIndex index : readIndex(number)) {
+                    if (index.maxTime >= fromNanos && index.minTime < toNanos && (tag == null
+                            || index.tags.contains(tag)) && (pid == 0 || index.pids.contains(pid))) {
+                        blocks.add(index);
+                    }
+                }
+                if (blocks.isEmpty()) {
+                    continue;
+                }
+                try (RandomAccessFile file = new RandomAccessFile(file(number, SEGMENT_EXTENSION), "r")) {
+                    for (BlockIndex index : blocks) {
+                        byte[] compressed = new byte[index.length];
+                        file.seek(index.offset);
+                        file.readFully(compressed);
+                        DataInputStream in = new DataInputStream(new ByteArrayInputStream(inflate(inflater,
+                                compressed)));
+                        for (int i = 0; i < index.count; i++) {
+                            LogcatEntry entry = LogcatEntry.read(in);
+                            if (entry.getTimeNanos() >= fromNanos && entry.getTimeNanos() < toNanos
+                                    && (tag == null || tag.equals(entry.getTag()))
+                                    && (pid == 0 || pid == entry.getPid())) {
+                                consumer.accept(entry);
+                                matched++;
+                            }
+                        }
+                    }
+                } catch (FileNotFoundException e) {
+                    // deleted to keep the store within its size
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+        return matched;
+    }
+
+    /**
+     * This method gives the time of the newest entry written to disk, eg: to skip the entries logcat sends
+     * again when the store is reopened.
+     *
+     * @return the time since the epoch in nanoseconds, 0 if the store is empty.
+     * @throws IOException if an index cannot be read.
+     */
+    long getLastTimeNanos() throws IOException {
+        long last = 0;
+        for (int number : segments()) {
+            for (BlockIndex index : readIndex(number)) {
+                last = Math.max(last, index.maxTime);
+            }
+        }
+        return last;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        closed = true;
+        if (segmentOut != null) {
+            closeSegment();
+        }
+        deflater.end();
+    }
+
+    private void openSegment() throws IOException {
+        segmentOut = new FileOutputStream(file(segment, SEGMENT_EXTENSION));
+        indexOut = new DataOutputStream(new FileOutputStream(file(segment, INDEX_EXTENSION)));
+        segmentOffset = 0;
+        segmentBlocks = 0;
+    }
+
+    private void closeSegment() throws IOException {
+        segmentOut.close();
+        indexOut.close();
+        segmentOut = null;
+    }
+
+    /**
+     * This method deletes the oldest segments while the store is too large.
+     */
+    private void deleteOldest() throws IOException {
+        List<Integer> segments = segments();
+        long size = 0;
+        for (int number : segments) {
+            size += file(number, SEGMENT_EXTENSION).length() + file(number, INDEX_EXTENSION).length();
+        }
+        for (int i = 0; i < segments.size() && size > maxBytes; i++) {
+            File segmentFile = file(segments.get(i), SEGMENT_EXTENSION);
+            File indexFile = file(segments.get(i), INDEX_EXTENSION);
+            size -= segmentFile.length() + indexFile.length();
+            // the index goes first, so a query never finds a block whose segment is gone
+            if (!indexFile.delete() || !segmentFile.delete()) {
+                throw new IOException("Unable to delete segment " + segments.get(i) + " of " + folder);
+            }
+        }
+    }
+
+    /**
+     * This method gives the numbers of the segments in the folder in ascending order.
+     */
+    private List<Integer> segments() {
+        List<Integer> segments = new ArrayList<>();
+        String[] names = folder.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(SEGMENT_EXTENSION)) {
+                    try {
+                        segments.add(Integer.parseInt(name.substring(0, name.length() - SEGMENT_EXTENSION.length())));
+                    } catch (NumberFormatException ignored) {
+                        // not a segment of the store
+                    }
+                }
+            }
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    /**
+     * This method reads the index of a segment. An index cut short by a crash ends at its last whole block.
+     */
+    private List<BlockIndex> readIndex(int number) throws IOException {
+        List<BlockIndex> blocks = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file(number,
+                INDEX_EXTENSION))))) {
+            while (true) {
+                blocks.add(BlockIndex.read(in));
+            }
+        } catch (EOFException | FileNotFoundException e) {
+            return blocks;
+        }
+    }
+
+    private File file(int number, String extension) {
+        return new File(folder, String.format("%08d", number) + extension);
+    }
+
+    private static byte[] inflate(Inflater inflater, byte[] compressed) throws IOException {
+        inflater.reset();
+        inflater.setInput(compressed);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(compressed.length * 4);
+        byte[] data = new byte[16 * 1024];
+        try {
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(data);
+                if (inflated == 0 && inflater.needsInput()) {
+                    throw new IOException("Truncated block");
+                }
+                output.write(data, 0, inflated);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted block", e);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * This class is the index of a block: where it is in the segment, the number of its entries, and the time
+     * range, the tags and the pids of the entries.
+     */
+    private static class BlockIndex {
+        private long offset;
+        private int length;
+        private int count;
+        private long minTime = Long.MAX_VALUE;
+        private long maxTime = Long.MIN_VALUE;
+        private Set<String> tags = new HashSet<>();
+        private Set<Integer> pids = new HashSet<>();
+
+        private void add(LogcatEntry entry) {
+            count++;
+            minTime = Math.min(minTime, entry.getTimeNanos());
+            maxTime = Math.max(maxTime, entry.getTimeNanos());
+            tags.add(entry.getTag());
+            pids.add(entry.getPid());
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeLong(offset);
+            out.writeInt(length);
+            out.writeInt(count);
+            out.writeLong(minTime);
+            out.writeLong(maxTime);
+            out.writeInt(pids.size());
+            for (int pid : pids) {
+                out.writeInt(pid);
+            }
+            out.writeInt(tags.size());
+            for (String tag : tags) {
+                out.writeUTF(tag);
+            }
+        }
+
+        private static BlockIndex read(DataInputStream in) throws IOException {
+            BlockIndex index = new BlockIndex();
+            index.offset = in.readLong();
+            index.length = in.readInt();
+            index.count = in.readInt();
+            index.minTime = in.readLong();
+            index.maxTime = in.readLong();
+            int pidCount = in.readInt();
+            for (int i = 0; i < pidCount; i++) {
+                index.pids.add(in.readInt());
+            }
+            int tagCount = in.readInt();
+            for (int i = 0; i < tagCount; i++) {
+                index.tags.add(in.readUTF());
+            }
+            return index;
+        }
+    }
+}
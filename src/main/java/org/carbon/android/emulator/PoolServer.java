@@ -0,0 +1,157 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class serves the device pool over HTTP on the loopback interface.
+ * <ul>
+ * <li>POST /leases?wait=seconds leases a ready device, waiting up to the given time for one, and answers
+ * 201 with the lease and the ports of the device, or 503 if no device became ready in time.</li>
+ * <li>DELETE /leases/id returns the device of the lease, and answers 204, or 404 if there is no such lease.</li>
+ * <li>GET /devices answers the state of every device of the pool.</li>
+ * </ul>
+ */
+class PoolServer {
+    private static final String LEASES = "/leases";
+    private static final long MAX_WAIT_SECONDS = 600;
+
+    private DevicePool pool;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * This method binds the server to the port of the loopback interface.
+     *
+     * @param pool - the device pool.
+     * @param port - the port, 0 for any free port.
+     * @throws IOException if the port cannot be bound.
+     */
+    PoolServer(DevicePool pool, int port) throws IOException {
+        this.pool = pool;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 50);
+        // a lease may wait for a device, so the requests do not wait for each other
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext(LEASES, this::handleLeases);
+        server.createContext("/devices", exchange -> {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                send(exchange, 405, "{\"error\": \"use GET\"}\n");
+                return;
+            }
+            send(exchange, 200, pool.toJson());
+        });
+    }
+
+    void start() {
+        server.start();
+        System.out.println("Device pool listening on http://127.0.0.1:" + getPort() + LEASES);
+    }
+
+    /**
+     * This method stops answering, it runs when the JVM exits. Leases waiting for a device are cut off.
+     */
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handleLeases(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+        if (path.equals(LEASES) && method.equals("POST")) {
+            long waitSeconds;
+            try {
+                waitSeconds = Math.min(MAX_WAIT_SECONDS, Long.parseLong(query(exchange, "wait", "0")));
+            } catch (NumberFormatException e) {
+                send(exchange, 400, "{\"error\": \"wait must be a number of seconds\"}\n");
+                return;
+            }
+            long start = System.nanoTime();
+            DevicePool.Lease lease;
+            try {
+                lease = pool.lease(TimeUnit.SECONDS.toMillis(waitSeconds));
+            } catch (InterruptedException e) {
+                send(exchange, 503, "{\"error\": \"interrupted\"}\n");
+                return;
+            }
+            if (lease == null) {
+                send(exchange, 503, "{\"error\": \"no device ready\"}\n");
+                return;
+            }
+            EmulatorFleet.Device device = lease.getDevice();
+            send(exchange, 201, String.format("{\"lease\": \"%s\", \"serial\": \"%s\", \"avd\": \"%s\", "
+                    + "\"console_port\": %d, \"adb_port\": %d, \"adb_server_port\": %d, \"wait_ms\": %d}\n",
+                    lease.getId(), device.getSerial(), device.getAvd(), device.getConsolePort(), device.getAdbPort(),
+                    pool.getAdbServerPort(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        } else if (path.startsWith(LEASES + "/") && method.equals("DELETE")) {
+            if (pool.release(path.substring(LEASES.length() + 1))) {
+                send(exchange, 204, null);
+            } else {
+                send(exchange, 404, "{\"error\": \"no such lease\"}\n");
+            }
+        } else {
+            send(exchange, 405, "{\"error\": \"use POST /leases or DELETE /leases/id\"}\n");
+        }
+    }
+
+    private static String query(HttpExchange exchange, String name, String defaultValue) {
+        String query = exchange.getRequestURI().getQuery();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith(name + "=")) {
+                    return parameter.substring(name.length() + 1);
+                }
+            }
+        }
+        return defaultValue;
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        try {
+            if (json == null) {
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            byte[] body = json.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * This class records the provisioned state of the Android SDK: the installed components with their
+ * source URLs and hashes, and the location of the tools. A valid manifest lets a warm start skip
+ * every provisioning check.
+ */
+class ProvisioningManifest {
+    static final int VERSION = 1;
+    private static final String VERSION_KEY = "manifest.version";
+    private static final String SDK_HOME_KEY = "sdk.home";
+    private static final String COMPONENT_PREFIX = "component.";
+    private static final String TOOL_PREFIX = "tool.";
+    private static final String URL_SUFFIX = ".url";
+    private static final String SHA256_SUFFIX = ".sha256";
+    private static final String PATH_SUFFIX = ".path";
+
+    private File file;
+    private String androidSdkHome;
+    private Map<String, String[]> components = new TreeMap<>();     // name to {url, sha256, path}
+    private Map<String, String> tools = new TreeMap<>();            // name to location
+
+    ProvisioningManifest(File file) {
+        this.file = file;
+    }
+
+    /**
+     * This method loads the manifest from its file.
+     *
+     * @return true if a manifest of the current version was loaded.
+     */
+    boolean load() {
+        if (!file.isFile()) {
+            return false;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            return false;
+        }
+        if (!String.valueOf(VERSION).equals(properties.getProperty(VERSION_KEY))) {
+            return false;
+        }
+        androidSdkHome = properties.getProperty(SDK_HOME_KEY);
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(COMPONENT_PREFIX) && key.endsWith(PATH_SUFFIX)) {
+                String name = key.substring(COMPONENT_PREFIX.length(), key.length() - PATH_SUFFIX.length());
+                components.put(name, new String[]{properties.getProperty(COMPONENT_PREFIX + name + URL_SUFFIX, ""),
+                        properties.getProperty(COMPONENT_PREFIX + name + SHA256_SUFFIX, ""),
+                        properties.getProperty(key)});
+            } else if (key.startsWith(TOOL_PREFIX)) {
+                tools.put(key.substring(TOOL_PREFIX.length()), properties.getProperty(key));
+            }
+        }
+        return androidSdkHome != null;
+    }
+
+    /**
+     * This method writes the manifest to its file.
+     *
+     * @throws IOException if the manifest cannot be written.
+     */
+    void save() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(VERSION_KEY, String.valueOf(VERSION));
+        properties.setProperty(SDK_HOME_KEY, androidSdkHome);
+        for (Map.Entry<String, String[]> component : components.entrySet()) {
+            properties.setProperty(COMPONENT_PREFIX + component.getKey() + URL_SUFFIX, component.getValue()[0]);
+            properties.setProperty(COMPONENT_PREFIX + component.getKey() + SHA256_SUFFIX, component.getValue()[1]);
+            properties.setProperty(COMPONENT_PREFIX + component.getKey() + PATH_SUFFIX, component.getValue()[2]);
+        }
+        for (Map.Entry<String, String> tool : tools.entrySet()) {
+            properties.setProperty(TOOL_PREFIX + tool.getKey(), tool.getValue());
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+            properties.store(writer, "WSO2 Android TryIt provisioning manifest");
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * This method checks, with file system lookups only, that every recorded component is still installed
+     * from the expected URL and that every tool is still executable.
+     *
+     * @param expectedUrls - the URL each component should come from; components without a URL are not compared.
+     * @return true if nothing has to be provisioned.
+     */
+    boolean isValid(Map<String, String> expectedUrls) {
+        if (androidSdkHome == null || !new File(androidSdkHome).isDirectory()) {
+            return false;
+        }
+        for (Map.Entry<String, String> expected : expectedUrls.entrySet()) {
+            String[] component = components.get(expected.getKey());
+            if (component == null) {
+                return false;
+            }
+            // components which were already in a user provided SDK are recorded without a URL
+            if (expected.getValue() != null && !component[0].isEmpty() && !expected.getValue().equals(component[0])) {
+                return false;
+            }
+        }
+        for (String[] component : components.values()) {
+            if (!new File(androidSdkHome + File.separator + component[2]).isDirectory()) {
+                return false;
+            }
+        }
+        for (String tool : tools.values()) {
+            if (!new File(tool).canExecute()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    String getAndroidSdkHome() {
+        return androidSdkHome;
+    }
+
+    void setAndroidSdkHome(String androidSdkHome) {
+        this.androidSdkHome = androidSdkHome;
+    }
+
+    boolean hasComponent(String name) {
+        return components.containsKey(name);
+    }
+
+    void putComponent(String name, String url, String sha256, String path) {
+        components.put(name, new String[]{url == null ? "" : url, sha256 == null ? "" : sha256, path});
+    }
+
+    void putTool(String name, String location) {
+        tools.put(name, location);
+    }
+}
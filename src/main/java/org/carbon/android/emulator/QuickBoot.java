@@ -0,0 +1,150 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * This class resumes an AVD from a snapshot taken once the agent was started on it, and keeps the boot
+ * times of the cold and the warm starts of the AVD in a file of the AVD folder.
+ */
+class QuickBoot {
+    static final String HISTORY_FILE = "wso2-quickboot.properties";
+    private static final String SAVED_KEY = "snapshot.saved";
+
+    private File avdFolder;
+    private String snapshotName;
+    private Properties history = new Properties();
+    private boolean warm;                       // true if this start resumes from the snapshot
+
+    QuickBoot(File avdFolder, String snapshotName) {
+        this.avdFolder = avdFolder;
+        this.snapshotName = snapshotName;
+
+        File file = new File(avdFolder, HISTORY_FILE);
+        if (file.isFile()) {
+            try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+                history.load(reader);
+            } catch (IOException e) {
+                history.clear();                // starts over with a cold boot
+            }
+        }
+        // the emulators which keep the snapshots in the AVD folder have a folder for each of them
+        File snapshots = new File(avdFolder, "snapshots");
+        warm = snapshotName.equals(history.getProperty(SAVED_KEY))
+                && (!snapshots.isDirectory() || new File(snapshots, snapshotName).isDirectory());
+    }
+
+    boolean isWarm() {
+        return warm;
+    }
+
+    String getSnapshotName() {
+        return snapshotName;
+    }
+
+    /**
+     * This method gives the emulator options of this start. A warm start loads the snapshot, a cold start boots
+     * without it. Neither saves a snapshot on exit, so the snapshot stays as it was taken.
+     *
+     * @return the options.
+     */
+    List<String> getEmulatorOptions() {
+        if (warm) {
+            return Arrays.asList("-snapshot", snapshotName, "-no-snapshot-save");
+        }
+        return Arrays.asList("-no-snapshot-load", "-no-snapshot-save");
+    }
+
+    /**
+     * This method takes the snapshot of the running emulator, to be loaded by the next starts.
+     *
+     * @param console - console of the emulator.
+     * @return time taken in milliseconds.
+     * @throws IOException if the snapshot cannot be taken.
+     */
+    long save(EmulatorConsole console) throws IOException {
+        long start = System.currentTimeMillis();
+        console.send("avd snapshot save " + snapshotName);
+        history.setProperty(SAVED_KEY, snapshotName);
+        store();
+        return System.currentTimeMillis() - start;
+    }
+
+    /**
+     * This method brings the running emulator back to the snapshot, eg: between test runs.
+     *
+     * @param console      - console of the emulator.
+     * @param snapshotName - name of the snapshot.
+     * @return time taken in milliseconds.
+     * @throws IOException if the snapshot cannot be loaded.
+     */
+    static long reset(EmulatorConsole console, String snapshotName) throws IOException {
+        long start = System.currentTimeMillis();
+        console.send("avd snapshot load " + snapshotName);
+        return System.currentTimeMillis() - start;
+    }
+
+    /**
+     * This method adds the boot time of this start to the history and prints the cold and warm averages.
+     *
+     * @param bootMillis - time from the launch of the emulator to the completed boot.
+     */
+    void recordBoot(long bootMillis) {
+        String kind = warm ? "warm" : "cold";
+        long count = Long.parseLong(history.getProperty(kind + ".count", "0")) + 1;
+        long total = Long.parseLong(history.getProperty(kind + ".total", "0")) + bootMillis;
+        history.setProperty(kind + ".count", String.valueOf(count));
+        history.setProperty(kind + ".total", String.valueOf(total));
+        history.setProperty(kind + ".last", String.valueOf(bootMillis));
+        try {
+            store();
+        } catch (IOException e) {
+            System.out.println("Unable to write the boot history of " + avdFolder.getName());
+        }
+
+        System.out.println((warm ? "Warm boot from snapshot " + snapshotName : "Cold boot") + " in "
+                + bootMillis + " ms");
+        for (String each : new String[]{"cold", "warm"}) {
+            long eachCount = Long.parseLong(history.getProperty(each + ".count", "0"));
+            if (eachCount > 0) {
+                System.out.println("  " + each + " boots: " + eachCount + ", average "
+                        + Long.parseLong(history.getProperty(each + ".total")) / eachCount + " ms");
+            }
+        }
+    }
+
+    private void store() throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(new File(avdFolder, HISTORY_FILE)),
+                StandardCharsets.UTF_8)) {
+            history.store(writer, "WSO2 Android TryIt quick boot history");
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+/**
+ * This class describes an Android SDK component which is downloaded as a zip archive and extracted
+ * into the SDK location.
+ */
+class SdkComponent {
+    private String name;                        // display name of the component
+    private String url;                         // URL to download the archive from
+    private String archiveName;                 // name of the archive inside the SDK location
+    private String extractedFolder;             // top level folder of the archive, null if not moved
+    private String installFolder;               // folder relative to the SDK to move the extracted folder to
+
+    SdkComponent(String name, String url, String archiveName) {
+        this(name, url, archiveName, null, null);
+    }
+
+    SdkComponent(String name, String url, String archiveName, String extractedFolder, String installFolder) {
+        this.name = name;
+        this.url = url;
+        this.archiveName = archiveName;
+        this.extractedFolder = extractedFolder;
+        this.installFolder = installFolder;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getUrl() {
+        return url;
+    }
+
+    String getArchiveName() {
+        return archiveName;
+    }
+
+    String getExtractedFolder() {
+        return extractedFolder;
+    }
+
+    String getInstallFolder() {
+        return installFolder;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * This class downloads the missing Android SDK components concurrently on a bounded pool of workers and
+ * extracts each archive as soon as its download is finished.
+ */
+class SdkProvisioner {
+    private String androidSdkHome;
+    private int poolSize;
+    private BiConsumer<String, String> downloader;      // downloads the URL to the given file
+    private Consumer<String> extractor;                 // extracts and deletes the given zip file
+    private BiConsumer<String, String> streamer;        // extracts the URL into the given folder, if enabled
+    private List<SdkComponent> components = new ArrayList<>();
+
+    SdkProvisioner(String androidSdkHome, int poolSize, BiConsumer<String, String> downloader,
+                   Consumer<String> extractor) {
+        this.androidSdkHome = androidSdkHome;
+        this.poolSize = poolSize;
+        this.downloader = downloader;
+        this.extractor = extractor;
+    }
+
+    /**
+     * This method enables the streaming mode, in which archives are extracted while they are downloaded
+     * and never written to disk.
+     *
+     * @param streamer - extracts the URL into the given folder.
+     */
+    void setStreamer(BiConsumer<String, String> streamer) {
+        this.streamer = streamer;
+    }
+
+    /**
+     * This method adds a component to be provisioned.
+     *
+     * @param component - the SDK component.
+     */
+    void add(SdkComponent component) {
+        components.add(component);
+    }
+
+    /**
+     * This method downloads and extracts all the added components and prints the time taken for each of them.
+     */
+    void provision() {
+        if (components.isEmpty()) {
+            return;
+        }
+        int workers = Math.max(1, Math.min(poolSize, components.size()));
+        ExecutorService downloadPool = Executors.newFixedThreadPool(workers);
+        ExecutorService extractPool = Executors.newFixedThreadPool(workers);
+        List<CompletableFuture<long[]>> tasks = new ArrayList<>();
+        long start = System.nanoTime();
+
+        try {
+            for (final SdkComponent component : components) {
+                final String archive = androidSdkHome + File.separator + component.getArchiveName();
+                if (streamer != null) {
+                    tasks.add(CompletableFuture.supplyAsync(() -> {
+                        System.out.println("Downloading and configuring " + component.getName());
+                        long streamStart = System.nanoTime();
+                        streamer.accept(component.getUrl(), androidSdkHome);
+                        relocate(component);
+                        return new long[]{System.nanoTime() - streamStart, 0};
+                    }, downloadPool));
+                    continue;
+                }
+                CompletableFuture<long[]> task = CompletableFuture.supplyAsync(() -> {
+                    System.out.println("Downloading " + component.getName());
+                    long downloadStart = System.nanoTime();
+                    downloader.accept(component.getUrl(), archive);
+                    return new long[]{System.nanoTime() - downloadStart, 0};
+                }, downloadPool).thenApplyAsync(times -> {
+                    System.out.println("Configuring " + component.getName());
+                    long extractStart = System.nanoTime();
+                    extractor.accept(archive);
+                    relocate(component);
+                    times[1] = System.nanoTime() - extractStart;
+                    return times;
+                }, extractPool);
+                tasks.add(task);
+            }
+            CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[tasks.size()])).join();
+        } finally {
+            downloadPool.shutdownNow();
+            extractPool.shutdownNow();
+        }
+        report(tasks, System.nanoTime() - start);
+        components.clear();
+    }
+
+    /**
+     * This method moves the extracted folder of the component to its location in the SDK.
+     *
+     * @param component - the extracted SDK component.
+     */
+    private void relocate(SdkComponent component) {
+        if (component.getExtractedFolder() == null) {
+            return;
+        }
+        File installFolder = new File(androidSdkHome + File.separator + component.getInstallFolder());
+
+        //noinspection ResultOfMethodCallIgnored
+        installFolder.getParentFile().mkdirs();
+        if (!new File(androidSdkHome + File.separator + component.getExtractedFolder()).renameTo(installFolder)) {
+            System.out.println("Unable to move " + component.getExtractedFolder() + " to "
+                    + component.getInstallFolder());
+        }
+    }
+
+    /**
+     * This method prints the download and extraction time of each component and the total wall time.
+     *
+     * @param tasks     - the completed tasks in the order of the components.
+     * @param wallNanos - total time taken to provision all components.
+     */
+    private void report(List<CompletableFuture<long[]>> tasks, long wallNanos) {
+        long serialNanos = 0;
+
+        System.out.println("+----------------------------------------------------------------+");
+        System.out.println(String.format("| %-30s %15s %15s |", "Component", "Download (ms)", "Extract (ms)"));
+        System.out.println("+----------------------------------------------------------------+");
+        for (int i = 0; i < tasks.size(); i++) {
+            long[] times = tasks.get(i).join();
+            serialNanos += times[0] + times[1];
+            System.out.println(String.format("| %-30s %15d %15d |", components.get(i).getName(),
+                    TimeUnit.NANOSECONDS.toMillis(times[0]), TimeUnit.NANOSECONDS.toMillis(times[1])));
+        }
+        System.out.println("+----------------------------------------------------------------+");
+        System.out.println(String.format("Provisioned %d components in %d ms (serial estimate %d ms, %.1fx)",
+                tasks.size(), TimeUnit.NANOSECONDS.toMillis(wallNanos), TimeUnit.NANOSECONDS.toMillis(serialNanos),
+                wallNanos == 0 ? 1.0 : (double) serialNanos / wallNanos));
+    }
+}
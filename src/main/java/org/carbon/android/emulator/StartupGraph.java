@@ -0,0 +1,154 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class runs the startup steps as a graph of tasks, starting each task as soon as the tasks it depends on
+ * are finished, and prints the time of each task and the critical path of the startup.
+ */
+class StartupGraph {
+    private Map<String, Task> tasks = new LinkedHashMap<>();
+
+    /**
+     * This method adds a task to the graph. The tasks it depends on must be added before it.
+     *
+     * @param name         - name of the task.
+     * @param action       - the step.
+     * @param dependencies - names of the tasks to be finished before the step starts.
+     */
+    void add(String name, Runnable action, String... dependencies) {
+        List<Task> inputs = new ArrayList<>();
+        for (String dependency : dependencies) {
+            Task input = tasks.get(dependency);
+            if (input == null) {
+                throw new IllegalArgumentException(name + " depends on " + dependency + ", which is not added");
+            }
+            inputs.add(input);
+        }
+        tasks.put(name, new Task(name, action, inputs));
+    }
+
+    /**
+     * This method runs all the tasks and waits until they are finished.
+     *
+     * @param threads - maximum number of tasks running at once.
+     * @param metrics - receives the time of each task and of the whole startup.
+     * @throws CompletionException if a task fails, the tasks depending on it are not run.
+     */
+    void run(int threads, StartupMetrics metrics) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Map<Task, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+        long start = System.nanoTime();
+
+        try {
+            for (Task task : tasks.values()) {
+                CompletableFuture<?>[] inputs = new CompletableFuture<?>[task.inputs.size()];
+                for (int i = 0; i < inputs.length; i++) {
+                    inputs[i] = futures.get(task.inputs.get(i));
+                }
+                futures.put(task, CompletableFuture.allOf(inputs).thenRunAsync(() -> {
+                    task.start = System.nanoTime() - start;
+                    task.action.run();
+                    task.end = System.nanoTime() - start;
+                }, pool));
+            }
+            CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[futures.size()])).join();
+        } finally {
+            pool.shutdown();
+        }
+        long wallTime = System.nanoTime() - start;
+        for (Task task : tasks.values()) {
+            metrics.record("startup_task", task.name, task.end - task.start);
+        }
+        metrics.record("startup", "total", wallTime);
+        report(wallTime);
+    }
+
+    /**
+     * This method prints the time of each task and the chain of tasks which decided the total time.
+     */
+    private void report(long wallTime) {
+        long serialTime = 0;
+        Task last = null;
+
+        System.out.println(String.format("%-20s %10s %10s %10s", "Startup task", "Start ms", "End ms", "Took ms"));
+        for (Task task : tasks.values()) {
+            serialTime += task.end - task.start;
+            if (last == null || task.end > last.end) {
+                last = task;
+            }
+            System.out.println(String.format("%-20s %10d %10d %10d", task.name, millis(task.start),
+                    millis(task.end), millis(task.end - task.start)));
+        }
+
+        List<String> criticalPath = new ArrayList<>();
+        for (Task task = last; task != null; task = task.latestInput()) {
+            criticalPath.add(task.name);
+        }
+        Collections.reverse(criticalPath);
+        System.out.println("Critical path: " + String.join(" -> ", criticalPath));
+        System.out.println("Startup took " + millis(wallTime) + " ms, " + millis(serialTime)
+                + " ms if the tasks ran one after another");
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * This class is a step of the startup with the tasks it depends on and the times it ran at.
+     */
+    private static class Task {
+        private String name;
+        private Runnable action;
+        private List<Task> inputs;
+        private volatile long start;            // nanoseconds since the startup began
+        private volatile long end;
+
+        private Task(String name, Runnable action, List<Task> inputs) {
+            this.name = name;
+            this.action = action;
+            this.inputs = inputs;
+        }
+
+        /**
+         * This method gives the input which finished last, the one the task waited for.
+         */
+        private Task latestInput() {
+            Task latest = null;
+            for (Task input : inputs) {
+                if (latest == null || input.end > latest.end) {
+                    latest = input;
+                }
+            }
+            return latest;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class collects the time taken by each phase of a run, and the bytes a phase moved, and writes them
+ * at the end of the run as a JSON file and as a Prometheus text format file, eg: for the textfile collector
+ * of the node exporter.
+ */
+class StartupMetrics {
+    private static final String METRIC_PREFIX = "tryit_";
+
+    private long startTime = System.currentTimeMillis();
+    private Map<String, Sample> samples = new LinkedHashMap<>();   // phase and subject to the latest sample
+
+    /**
+     * This method records the time taken by a phase.
+     *
+     * @param phase   - the phase, eg: boot.
+     * @param subject - what the phase worked on, eg: the AVD.
+     * @param nanos   - time taken in nanoseconds.
+     */
+    void record(String phase, String subject, long nanos) {
+        record(phase, subject, nanos, -1);
+    }
+
+    /**
+     * This method records the time taken by a phase which moved data, eg: a download.
+     *
+     * @param phase   - the phase, eg: download.
+     * @param subject - what the phase worked on, eg: the artifact.
+     * @param nanos   - time taken in nanoseconds.
+     * @param bytes   - bytes moved, -1 if not known.
+     */
+    synchronized void record(String phase, String subject, long nanos, long bytes) {
+        String subjectName = subject == null ? "" : subject;
+        samples.put(phase + '\0' + subjectName, new Sample(phase, subjectName, nanos, bytes));
+    }
+
+    /**
+     * This method records the time since the given start.
+     *
+     * @param phase     - the phase.
+     * @param subject   - what the phase worked on.
+     * @param startNano - System.nanoTime() at the start of the phase.
+     */
+    void recordSince(String phase, String subject, long startNano) {
+        record(phase, subject, System.nanoTime() - startNano);
+    }
+
+    /**
+     * This method writes the metrics to name.json and name.prom in the folder, replacing the files of the
+     * previous run. A failure is printed, as the metrics are not needed for the run.
+     *
+     * @param folder - the folder to write to.
+     * @param name   - name of the files without the extension.
+     */
+    void write(File folder, String name) {
+        List<Sample> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(samples.values());
+        }
+        try {
+            if (!folder.isDirectory() && !folder.mkdirs()) {
+                throw new IOException("Unable to create " + folder);
+            }
+            writeAtomically(new File(folder, name + ".json"), toJson(snapshot));
+            writeAtomically(new File(folder, name + ".prom"), toPrometheus(snapshot));
+            System.out.println("Startup metrics written to " + new File(folder, name + ".{json,prom}"));
+        } catch (IOException e) {
+            System.out.println("Unable to write the startup metrics: " + e.getMessage());
+        }
+    }
+
+    private String toJson(List<Sample> snapshot) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"start\": ").append(startTime).append(",\n  \"os\": ")
+                .append(quote(System.getProperty(Constants.OS_NAME_PROPERTY))).append(",\n  \"phases\": [");
+        for (int i = 0; i < snapshot.size(); i++) {
+            Sample sample = snapshot.get(i);
+            json.append(i == 0 ? "\n" : ",\n").append("    {\"phase\": ").append(quote(sample.phase))
+                    .append(", \"subject\": ").append(quote(sample.subject))
+                    .append(", \"seconds\": ").append(seconds(sample.nanos));
+            if (sample.bytes >= 0) {
+                json.append(", \"bytes\": ").append(sample.bytes)
+                        .append(", \"bytes_per_second\": ").append(format(sample.throughput()));
+            }
+            json.append('}');
+        }
+        return json.append("\n  ]\n}\n").toString();
+    }
+
+    private String toPrometheus(List<Sample> snapshot) {
+        StringBuilder text = new StringBuilder();
+        header(text, "run_start_timestamp_seconds", "Time the run was started at.");
+        text.append(METRIC_PREFIX).append("run_start_timestamp_seconds ").append(format(startTime / 1000.0))
+                .append('\n');
+
+        header(text, "phase_duration_seconds", "Time taken by a phase of the run.");
+        for (Sample sample : snapshot) {
+            text.append(METRIC_PREFIX).append("phase_duration_seconds").append(labels(sample)).append(' ')
+                    .append(seconds(sample.nanos)).append('\n');
+        }
+        header(text, "phase_bytes", "Bytes moved by a phase of the run.");
+        for (Sample sample : snapshot) {
+            if (sample.bytes >= 0) {
+                text.append(METRIC_PREFIX).append("phase_bytes").append(labels(sample)).append(' ')
+                        .append(sample.bytes).append('\n');
+            }
+        }
+        header(text, "phase_throughput_bytes_per_second", "Bytes moved per second by a phase of the run.");
+        for (Sample sample : snapshot) {
+            if (sample.bytes >= 0) {
+                text.append(METRIC_PREFIX).append("phase_throughput_bytes_per_second").append(labels(sample))
+                        .append(' ').append(format(sample.throughput())).append('\n');
+            }
+        }
+        return text.toString();
+    }
+
+    private static void header(StringBuilder text, String metric, String help) {
+        text.append("# HELP ").append(METRIC_PREFIX).append(metric).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(METRIC_PREFIX).append(metric).append(" gauge\n");
+    }
+
+    private static String labels(Sample sample) {
+        return "{phase=\"" + escape(sample.phase) + "\",subject=\"" + escape(sample.subject) + "\"}";
+    }
+
+    /**
+     * This method escapes a label value of the Prometheus text format.
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * This method quotes a JSON string.
+     */
+    private static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static String seconds(long nanos) {
+        return format(nanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static void writeAtomically(File file, String content) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+            writer.write(content);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * This class is the measurement of a phase.
+     */
+    private static class Sample {
+        private String phase;
+        private String subject;
+        private long nanos;
+        private long bytes;                     // -1 if the phase moves no data
+
+        private Sample(String phase, String subject, long nanos, long bytes) {
+            this.phase = phase;
+            this.subject = subject;
+            this.nanos = nanos;
+            this.bytes = bytes;
+        }
+
+        private double throughput() {
+            return bytes / Math.max(nanos / (double) TimeUnit.SECONDS.toNanos(1), 1e-9);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * This class decompresses a zip archive straight from the network stream into a folder, so the archive
+ * itself is never written to disk. As there is no archive, it is not added to the artifact cache, but its
+ * SHA-256 is computed from the stream for the provisioning manifest.
+ */
+class StreamingExtractor {
+    private static final int BUFFER = 64 * 1024;
+
+    private String sha256;                      // of the archive last extracted
+
+    /**
+     * This method downloads the URL and extracts its entries into the destination as the bytes arrive.
+     *
+     * @param path        - the URL of the zip archive.
+     * @param destination - the folder to extract the entries to.
+     * @return number of bytes read from the network.
+     * @throws IOException if the download or the extraction fails.
+     */
+    long extract(String path, String destination) throws IOException {
+        File root = new File(destination).getCanonicalFile();
+        byte[] data = new byte[BUFFER];
+        long start = System.nanoTime();
+        long written = 0;
+        CountingInputStream counter;
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not available", e);
+        }
+        //noinspection ResultOfMethodCallIgnored
+        root.mkdirs();
+        try (CountingInputStream in = new CountingInputStream(new DigestInputStream(new URL(path).openStream(),
+                digest)); ZipInputStream zip = new ZipInputStream(new BufferedInputStream(in, BUFFER))) {
+            counter = in;
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                File destFile = new File(root, entry.getName()).getCanonicalFile();
+                if (!destFile.toPath().startsWith(root.toPath())) {
+                    throw new IOException("Entry " + entry.getName() + " is outside of " + destination);
+                }
+                if (entry.isDirectory()) {
+                    //noinspection ResultOfMethodCallIgnored
+                    destFile.mkdirs();
+                    continue;
+                }
+                //noinspection ResultOfMethodCallIgnored
+                destFile.getParentFile().mkdirs();
+                try (OutputStream out = new FileOutputStream(destFile)) {
+                    int read;
+                    while ((read = zip.read(data)) != -1) {
+                        out.write(data, 0, read);
+                        written += read;
+                    }
+                }
+            }
+            // the central directory after the entries is read too, so the digest covers the whole archive
+            //noinspection StatementWithEmptyBody
+            while (in.read(data) != -1) {
+            }
+        }
+        sha256 = ArtifactDownloader.toHex(digest.digest());
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        System.out.println(String.format("Streamed %s: %.1f MB downloaded, %.1f MB extracted in %.1f s (%.2f MB/s)",
+                path.substring(path.lastIndexOf('/') + 1), counter.count / 1048576.0, written / 1048576.0,
+                seconds, counter.count / 1048576.0 / seconds));
+        return counter.count;
+    }
+
+    /**
+     * This method gives the SHA-256 of the archive extracted last.
+     *
+     * @return the hex encoded SHA-256, or null if no archive was extracted.
+     */
+    String getSha256() {
+        return sha256;
+    }
+
+    /**
+     * This class counts the bytes read from the network.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value != -1) {
+                count++;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class replays a trace on the console of an emulator. The commands due at the same time are sent as
+ * one pipelined batch, so hundreds of readings a second take a few round trips to the console instead of
+ * one each, and a replay which falls behind catches up in larger batches.
+ */
+class TraceReplayer {
+    static final int MAX_BATCH = 64;            // the replies of a batch stay far below the socket buffers
+
+    private EmulatorConsole console;
+    private EmulatorTrace trace;
+    private double speed;
+    private boolean loop;
+    private volatile boolean stopped;
+    private volatile Thread replaying;          // thread running the replay, woken up when stopped
+
+    /**
+     * This method sets up the replay of a trace on a console.
+     *
+     * @param console - console of the emulator.
+     * @param trace   - the trace to replay.
+     * @param speed   - how many times faster than the trace to replay, 0 to send the commands without waiting.
+     * @param loop    - whether to start the trace again when it ends, until stopped.
+     */
+    TraceReplayer(EmulatorConsole console, EmulatorTrace trace, double speed, boolean loop) {
+        this.console = console;
+        this.trace = trace;
+        this.speed = speed;
+        this.loop = loop;
+    }
+
+    /**
+     * This method stops the replay after the batch being sent, without waiting for the next command to be due.
+     */
+    void stop() {
+        stopped = true;
+        LockSupport.unpark(replaying);
+    }
+
+    /**
+     * This method replays the trace until it ends, or until stopped if it loops, and prints the commands sent,
+     * the batches, the failed commands and how far behind the trace the replay fell.
+     *
+     * @return the number of commands sent.
+     * @throws IOException if the console is closed.
+     */
+    long replay() throws IOException {
+        if (trace.size() == 0) {
+            return 0;
+        }
+        // the trace is replayed from its first reading, which may have an epoch time
+        long first = trace.getTimeNanos(0);
+        long span = trace.getTimeNanos(trace.size() - 1) - first;
+        // a looped trace starts again one average interval after its last reading
+        long period = span + span / Math.max(1, trace.size() - 1);
+        replaying = Thread.currentThread();
+        long start = System.nanoTime();
+        long offset = 0;
+        long sent = 0;
+        long batches = 0;
+        long failed = 0;
+        long maxLagNanos = 0;
+        String firstError = null;
+        List<String> batch = new ArrayList<>(MAX_BATCH);
+        int index = 0;
+
+        while (!stopped) {
+            if (index == trace.size()) {
+                if (!loop || period == 0) {
+                    break;
+                }
+                index = 0;
+                offset += Math.max(period, 1);
+            }
+            long due = offset + trace.getTimeNanos(index) - first;
+            long elapsed = speed <= 0 ? Long.MAX_VALUE : (long) ((System.nanoTime() - start) * speed);
+            if (due > elapsed) {
+                LockSupport.parkNanos((long) ((due - elapsed) / speed));
+                continue;
+            }
+            if (speed > 0) {
+                maxLagNanos = Math.max(maxLagNanos, (long) ((elapsed - due) / speed));
+            }
+            while (index < trace.size() && batch.size() < MAX_BATCH
+                    && offset + trace.getTimeNanos(index) - first <= elapsed) {
+                batch.add(trace.getCommand(index++));
+            }
+            List<String> errors = console.sendBatch(batch);
+            if (!errors.isEmpty() && firstError == null) {
+                firstError = errors.get(0);
+            }
+            sent += batch.size();
+            failed += errors.size();
+            batches++;
+            batch.clear();
+        }
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.println("Replayed " + sent + " commands in " + millis + " ms (" + sent * 1000 / Math.max(millis, 1)
+                + " a second) in " + batches + " batches, " + failed + " failed, at most "
+                + TimeUnit.NANOSECONDS.toMillis(maxLagNanos) + " ms behind the trace");
+        if (firstError != null) {
+            System.out.println("First failed command: " + firstError);
+        }
+        return sent;
+    }
+}
@@ -18,31 +18,30 @@
 
 package org.carbon.android.emulator;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.nio.channels.Channels;
-import java.nio.channels.ReadableByteChannel;
+import java.lang.management.ManagementFactory;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * This class creates an Android TryIt Emulator to be used as virtual device to connect to WSO2 IOT Cloud
@@ -56,6 +55,31 @@ public class TryIt {
     private File sdkLocationFile;              // file in which SDK location is written
     private String adbLocation;                // location of executable file abd
     private String emulatorLocation;           // location of executable file emulator
+    private String qemuLocation;               // location of executable file qemu-system-i386
+    private AdbDevice adbDevice;               // runs the adb commands on the device
+    private int adbServerPort;
+    private long emulatorStartTime;            // time the emulator was launched at
+    private long emulatorLaunched;             // System.nanoTime() when the emulator was launched
+    private QuickBoot quickBoot;               // resumes the AVD from a snapshot, null if not enabled
+    private EmulatorSupervisor emulatorSupervisor;                 // restarts the emulator, null until started
+    private EmulatorSupervisor.Supervised supervisedEmulator;      // the emulator started by startEmulator
+    private volatile boolean emulatorBooted;
+    private boolean sdkFromManifest;           // true if the SDK was provisioned by a previous run
+    private String selectedAvd;                // AVD to start, null if WSO2_AVD is to be created
+    private ApkManifest agent;                 // manifest of the agent apk
+    private ProvisioningManifest manifest;     // provisioned state of the SDK
+    private Set<String> verifiedTools = ConcurrentHashMap.newKeySet();    // tools validated through the manifest
+    private Map<String, String> artifactHashes = new ConcurrentHashMap<>();   // URL to SHA-256 of this run
+    private SdkProvisioner sdkProvisioner;     // downloads the missing SDK components concurrently
+    private ArtifactDownloader artifactDownloader;
+    private ArtifactCache artifactCache;       // artifacts shared by the working directories of the host
+    private ApkMetadataCache apkMetadataCache; // manifests of the APKs read before
+    private ZipExtractor zipExtractor;
+    private StartupMetrics metrics = new StartupMetrics();     // time of each phase, written at the end of the run
+    // hardware of the AVDs created by this run, for each number of devices running at once
+    private Map<Integer, AvdHardwareProfile> hardwareProfiles = new HashMap<>();
+    private LaunchProfile launchProfile;           // window and acceleration of the emulators, null until chosen
+    private LogcatCollector logcatCollector;       // streams the logcat of the devices, null until started
 
     /**
      * This method gets the system specific variables.
@@ -72,6 +96,16 @@ public class TryIt {
             osSuffix = Constants.MAC_OS;
         }
         System.out.println("Detected OS " + osSuffix);
+
+        artifactDownloader = new ArtifactDownloader(Integer.getInteger(Constants.DOWNLOAD_CONNECTIONS, 4),
+                Integer.getInteger(Constants.DOWNLOAD_RETRIES, 5), 1000);
+        zipExtractor = new ZipExtractor(Runtime.getRuntime().availableProcessors());
+
+        String cacheDirectory = System.getProperty(Constants.CACHE_DIRECTORY, userHome + File.separator + ".cache"
+                + File.separator + "wso2-android-emulator");
+        artifactCache = new ArtifactCache(new File(cacheDirectory),
+                Long.getLong(Constants.CACHE_MAX_SIZE, 4096) * 1024 * 1024, Boolean.getBoolean(Constants.OFFLINE));
+        apkMetadataCache = new ApkMetadataCache(new File(cacheDirectory, "apk-metadata.properties"));
     }
 
     /**
@@ -82,34 +116,115 @@ public class TryIt {
     public static void main(String[] args) {
 
         TryIt tryIt = new TryIt();
-        tryIt.setAndroidSDK();
-        tryIt.checkBuildTools();
-
-        try {
-            tryIt.startAVD();
-        } catch (IOException e) {
-            tryIt.handleException("Unable to start AVD", e);
+        if (args.length > 0 && args[0].equals("reset")) {
+            tryIt.resetToSnapshot();
+            return;
         }
-
-        try {
-            tryIt.checkEmulatorBoot();
-        } catch (IOException e) {
-            tryIt.handleException("Emulator boot process failure", e);
+        if (args.length > 0 && args[0].equals("replay")) {
+            try {
+                tryIt.replayTraces();
+            } catch (IOException e) {
+                tryIt.handleException("Unable to replay the traces", e);
+            }
+            return;
         }
-
-        String[] agents = new String[2];
-
-        try {
-            agents = tryIt.checkForAgent();
-        } catch (IOException ignored) {
-            // can continue installing agent again
+        if (args.length > 0 && args[0].equals("logcat")) {
+            tryIt.queryLogcat();
+            return;
         }
-        System.out.println("Starting Agent ...");
-        try {
-            tryIt.startPackage(agents);
-        } catch (IOException e) {
-            tryIt.handleException("Unable to start WSO2 package", e);
+        if (args.length > 0 && args[0].equals("profile")) {
+            tryIt.getHardwareProfile(Integer.getInteger(Constants.FLEET_SIZE, 1));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("daemon")) {
+            tryIt.locateSDK();
+            tryIt.completeSDK();
+            try {
+                tryIt.startDaemon();
+            } catch (IOException e) {
+                tryIt.handleException("Unable to start the daemon", e);
+            }
+            tryIt.writeMetrics();
+            System.out.println("Press Ctrl+C to stop the daemon");
+            return;
         }
+        int fleetSize = Integer.getInteger(Constants.FLEET_SIZE, 1);
+        if (fleetSize > 1) {
+            tryIt.locateSDK();
+            tryIt.completeSDK();
+            try {
+                tryIt.startFleet(fleetSize);
+            } catch (IOException e) {
+                tryIt.handleException("Unable to start the fleet", e);
+            }
+            tryIt.writeMetrics();
+            System.out.println("Press Ctrl+C to stop the fleet");
+            return;
+        }
+
+        // each step starts as soon as the steps it needs are done, eg: the downloads run while the AVD is chosen
+        StartupGraph startup = new StartupGraph();
+        startup.add("sdk-location", tryIt::locateSDK);
+        startup.add("provision", tryIt::completeSDK, "sdk-location");
+        startup.add("select-avd", () -> tryIt.selectedAvd = tryIt.selectAVD(), "sdk-location");
+        startup.add("launch-emulator", () -> {
+            try {
+                if (tryIt.selectedAvd == null) {
+                    tryIt.createAVD();
+                    tryIt.selectedAvd = "WSO2_AVD";
+                }
+                tryIt.runEmulator(tryIt.selectedAvd);
+            } catch (IOException e) {
+                tryIt.handleException("Unable to start AVD", e);
+            }
+        }, "select-avd", "provision");
+        startup.add("boot", () -> {
+            try {
+                tryIt.checkEmulatorBoot();
+            } catch (IOException e) {
+                tryIt.handleException("Emulator boot process failure", e);
+            }
+        }, "launch-emulator");
+        startup.add("logcat", () -> tryIt.collectLogcat(tryIt.selectedAvd, tryIt.adbDevice.getAdbClient()), "boot");
+        startup.add("agent-manifest", () -> {
+            try {
+                tryIt.agent = tryIt.readAgentManifest();
+            } catch (IOException e) {
+                tryIt.handleException("Unable to read the WSO2 agent", e);
+            }
+        });
+        startup.add("agent-install", () -> {
+            try {
+                tryIt.checkForAgent(tryIt.agent);
+            } catch (IOException ignored) {
+                // can continue installing agent again
+            }
+        }, "boot", "agent-manifest");
+        startup.add("agent-start", () -> {
+            System.out.println("Starting Agent ...");
+            try {
+                tryIt.startPackage(tryIt.agent);
+            } catch (IOException e) {
+                tryIt.handleException("Unable to start WSO2 package", e);
+            }
+            if (tryIt.quickBoot != null && !tryIt.quickBoot.isWarm()) {
+                tryIt.saveSnapshot();
+            }
+        }, "agent-install");
+        startup.run(4, tryIt.metrics);
+        tryIt.writeMetrics();
+        if (hasTraces()) {
+            Thread replay = new Thread(() -> {
+                try {
+                    tryIt.replayTraces();
+                } catch (IOException e) {
+                    System.out.println("Unable to replay the traces: " + e.getMessage());
+                }
+            }, "trace-replay");
+            replay.setDaemon(true);
+            replay.start();
+        }
+
         Process startShell = null;
         ProcessBuilder startShellProcessBuilder = new ProcessBuilder(tryIt.adbLocation, "shell");
         try {
@@ -127,48 +242,95 @@ public class TryIt {
         } catch (InterruptedException ignored) {
             // Interrupted if AVD is closed only.
         }
+        tryIt.stopSupervision();
         System.out.println("Good Bye!");
     }
 
     /**
-     * This method downloads the files.
+     * This method takes the files from the artifact cache if available, else downloads them,
+     * resuming a partial download left by a previous run, and adds them to the cache.
      *
      * @param path       - the URL to download from.
      * @param folderName - the folder location to download the files to.
      */
     private void downloadArtifacts(String path, String folderName) {
-        ReadableByteChannel rbc = null;
-        FileOutputStream fos = null;
-        URL url = null;
+        File cached = getCachedArtifact(path);
 
+        String artifact = new File(folderName).getName();
+        long start = System.nanoTime();
         try {
-            url = new URL(path);
-        } catch (MalformedURLException e) {
-            handleException("Downloading " + folderName + " failed.", e);
+            if (cached != null) {
+                System.out.println("Using cached " + folderName);
+                artifactCache.copyTo(cached, new File(folderName));
+                artifactHashes.put(path, cached.getName());
+                metrics.record("cache_copy", artifact, System.nanoTime() - start, cached.length());
+                return;
+            }
+        } catch (IOException e) {
+            handleException("Copying " + folderName + " from the artifact cache failed.", e);
         }
 
+        String sha256 = null;
         try {
-            if (url != null) {
-                rbc = Channels.newChannel(url.openStream());
-            }
-            fos = new FileOutputStream(folderName);
-            fos.getChannel().transferFrom(rbc, 0, Long.MAX_VALUE);
+            sha256 = artifactDownloader.download(path, folderName);
+            artifactHashes.put(path, sha256);
+            metrics.record("download", artifact, System.nanoTime() - start, new File(folderName).length());
         } catch (IOException e) {
-            if (!new File(folderName).delete()) {
-                System.out.println("Delete " + folderName + " and try again");
-            }
+            System.out.println("Run again to resume the download of " + folderName);
             handleException("Downloading " + folderName + " failed.", e);
-        } finally {
-            try {
-                if (fos != null) {
-                    fos.close();
-                }
-                if (rbc != null) {
-                    rbc.close();
-                }
-            } catch (IOException ignored) {
-                // File close exception ignored
+        }
+        try {
+            artifactCache.store(path, new File(folderName), sha256);
+        } catch (IOException e) {
+            System.out.println("Unable to add " + folderName + " to the artifact cache");
+        }
+    }
+
+    /**
+     * This method looks up the URL in the artifact cache and terminates in offline mode if it is not cached.
+     *
+     * @param path - the URL of the artifact.
+     * @return the cached artifact, or null if it has to be downloaded.
+     */
+    private File getCachedArtifact(String path) {
+        File cached = null;
+        try {
+            cached = artifactCache.lookup(path);
+        } catch (IOException e) {
+            System.out.println("Unable to read the artifact cache");
+        }
+        if (cached == null && artifactCache.isOffline()) {
+            handleException("Offline mode", new FileNotFoundException(path + " is not in the artifact cache"));
+        }
+        return cached;
+    }
+
+    /**
+     * This method downloads a zip and extracts it while downloading, without writing the zip to disk. A zip in
+     * the artifact cache is extracted from there, but a streamed zip is not added to the cache.
+     *
+     * @param path        - the URL to download from.
+     * @param destination - the folder to extract the zip to.
+     */
+    private void streamArtifacts(String path, String destination) {
+        File cached = getCachedArtifact(path);
+        String artifact = path.substring(path.lastIndexOf('/') + 1);
+        long start = System.nanoTime();
+
+        try {
+            if (cached != null) {
+                System.out.println("Using cached " + path);
+                long extracted = zipExtractor.extract(cached, new File(destination));
+                artifactHashes.put(path, cached.getName());
+                metrics.record("extract", artifact, System.nanoTime() - start, extracted);
+                return;
             }
+            StreamingExtractor streamingExtractor = new StreamingExtractor();
+            long downloaded = streamingExtractor.extract(path, destination);
+            artifactHashes.put(path, streamingExtractor.getSha256());
+            metrics.record("stream_extract", artifact, System.nanoTime() - start, downloaded);
+        } catch (IOException e) {
+            handleException("Downloading " + path + " failed.", e);
         }
     }
 
@@ -229,9 +391,11 @@ public class TryIt {
 
         androidSdkHome = workingDirectory + File.separator + androidSdkFolderName;
 
-        getTools(System.getProperty(Constants.SDK_TOOLS_URL), "_Android-sdk-tools.zip");
+        getSdkProvisioner().add(new SdkComponent("_Android-sdk-tools.zip",
+                System.getProperty(Constants.SDK_TOOLS_URL), "_Android-sdk-tools.zip"));
 
-        getTools(System.getProperty(Constants.PLATFORM_TOOLS_URL), "_Android-platform-tools.zip");
+        getSdkProvisioner().add(new SdkComponent("_Android-platform-tools.zip",
+                System.getProperty(Constants.PLATFORM_TOOLS_URL), "_Android-platform-tools.zip"));
 
         Writer writer = null;
         try {
@@ -258,73 +422,164 @@ public class TryIt {
     }
 
     /**
-     * This method downloads and extracts the tools.
+     * This method returns the provisioner which downloads and extracts the missing SDK components.
      *
-     * @param url        - the URL to download from.
-     * @param folderName - the folder name where to download.
+     * @return the SDK provisioner for the current SDK location.
      */
-    private void getTools(String url, String folderName) {
-        System.out.println("Downloading " + folderName);
-        downloadArtifacts(url, androidSdkHome + File.separator + folderName);
-        System.out.println("Configuring " + folderName);
-        extractFolder(androidSdkHome + File.separator + folderName);
+    private SdkProvisioner getSdkProvisioner() {
+        if (sdkProvisioner == null) {
+            int poolSize = Integer.getInteger(Constants.PROVISION_THREADS, Runtime.getRuntime().availableProcessors());
+            sdkProvisioner = new SdkProvisioner(androidSdkHome, poolSize, this::downloadArtifacts,
+                    this::extractFolder);
+            if (Boolean.getBoolean(Constants.STREAMING_EXTRACT)) {
+                sdkProvisioner.setStreamer(this::streamArtifacts);
+            }
+        }
+        return sdkProvisioner;
     }
 
     /**
-     * This method starts the AVD specified by the user.
+     * This method downloads and extracts all the missing SDK components at the same time
+     * and sets the permission of the tools which are needed afterwards.
+     */
+    private void provisionSDK() {
+        long start = System.nanoTime();
+        getSdkProvisioner().provision();
+        metrics.recordSince("provision", "sdk", start);
+        setExecutePermission(adbLocation);
+    }
+
+    /**
+     * This method returns the URL each SDK component is provisioned from, keyed by the component's
+     * folder relative to the SDK location.
      *
-     * @throws IOException process throws  if an I/O error occurs.
+     * @return the SDK components and their URLs.
      */
-    private void startAVD() throws IOException {
-        String wso2AvdLocation = userHome + File.separator + ".android" + File.separator + "avd" + File.separator
-                + "WSO2_AVD.avd";
+    private Map<String, String> getComponentUrls() {
+        Map<String, String> components = new LinkedHashMap<>();
+        components.put("tools", System.getProperty(Constants.SDK_TOOLS_URL));
+        components.put("platform-tools", System.getProperty(Constants.PLATFORM_TOOLS_URL));
+        components.put("platforms" + File.separator + "android-23", System.getProperty(Constants.PLATFORM_URL));
+        components.put("system-images" + File.separator + "android-23" + File.separator + "default",
+                System.getProperty(Constants.SYSTEM_IMAGE_URL));
+        return components;
+    }
 
-        checkForPlatform();
-        checkForSystemImages();
+    /**
+     * This method finds the Android SDK and the components missing in it, unless the manifest shows it is
+     * already provisioned.
+     */
+    private void locateSDK() {
+        sdkFromManifest = loadProvisioningManifest();
+        if (!sdkFromManifest) {
+            setAndroidSDK();
+            checkForPlatform();
+            checkForSystemImages();
+        }
+    }
 
-        if (!new File(wso2AvdLocation).isDirectory()) {
-            Scanner read = new Scanner(System.in, "UTF-8");
-            System.out.println("Do you want to create WSO2_AVD with default configs (Y/n)?: ");
-            if (read.next().toLowerCase().matches("y")) {
-                createAVD();
-                return;
-            }
+    /**
+     * This method provisions the SDK components found missing by locateSDK.
+     */
+    private void completeSDK() {
+        if (!sdkFromManifest) {
+            provisionSDK();
+            saveProvisioningManifest();
         }
+    }
 
-        System.out.println("+----------------------------------------------------------------+");
-        System.out.println("|                        WSO2 Android TryIt                      |");
-        System.out.println("+----------------------------------------------------------------+");
+    /**
+     * This method loads the provisioning manifest and validates it against the SDK on disk.
+     *
+     * @return true if the SDK is fully provisioned and every provisioning check can be skipped.
+     */
+    private boolean loadProvisioningManifest() {
+        manifest = new ProvisioningManifest(new File(Constants.MANIFEST_FILE));
+
+        if (!manifest.load() || !manifest.isValid(getComponentUrls())) {
+            return false;
+        }
+        androidSdkHome = manifest.getAndroidSdkHome();
+        setToolLocations();
+        verifiedTools.addAll(Arrays.asList(adbLocation, emulatorLocation, qemuLocation));
+        System.out.println("Using provisioned Android SDK at " + androidSdkHome);
+        return true;
+    }
 
+    /**
+     * This method records the installed SDK components and the tool locations in the provisioning manifest.
+     */
+    private void saveProvisioningManifest() {
+        manifest.setAndroidSdkHome(androidSdkHome);
+        for (Map.Entry<String, String> component : getComponentUrls().entrySet()) {
+            String sha256 = artifactHashes.get(String.valueOf(component.getValue()));
+            if (sha256 != null) {
+                manifest.putComponent(component.getKey(), component.getValue(), sha256, component.getKey());
+            } else if (!manifest.hasComponent(component.getKey())) {
+                manifest.putComponent(component.getKey(), null, null, component.getKey());
+            }
+        }
+        manifest.putTool("adb", adbLocation);
+        manifest.putTool("emulator", emulatorLocation);
+        manifest.putTool("qemu", qemuLocation);
+        try {
+            manifest.save();
+        } catch (IOException e) {
+            System.out.println("Unable to write the provisioning manifest");
+        }
+    }
+
+    /**
+     * This method sets the location of the executable files in the SDK.
+     */
+    private void setToolLocations() {
+        adbLocation = androidSdkHome + File.separator + "platform-tools" + File.separator + "adb";
         emulatorLocation = androidSdkHome + File.separator + "tools" + File.separator + "emulator";
+        qemuLocation = androidSdkHome + File.separator + "tools" + File.separator + "qemu" + File.separator;
 
+        switch (osSuffix) {
+            case Constants.MAC_OS:
+                qemuLocation += "darwin" + "-x86_64" + File.separator + "qemu-system-i386";
+                break;
+            case Constants.WINDOWS_OS:
+                qemuLocation += osSuffix + "-x86_64" + File.separator + "qemu-system-i386.exe";
+                break;
+            default:
+                qemuLocation += osSuffix + "-x86_64" + File.separator + "qemu-system-i386";
+        }
         if (osSuffix.equals(Constants.WINDOWS_OS)) {
+            adbLocation += Constants.WINDOWS_EXTENSION_EXE;
             emulatorLocation += Constants.WINDOWS_EXTENSION_EXE;
         }
-        setExecutePermission(emulatorLocation);
-
-        ProcessBuilder listAVDsProcessBuilder = new ProcessBuilder(emulatorLocation, "-list-avds");
-        Process listAVDsProcess = listAVDsProcessBuilder.start();
+        String adbPort = System.getenv("ANDROID_ADB_SERVER_PORT");
+        adbServerPort = adbPort == null ? AdbClient.DEFAULT_PORT : Integer.parseInt(adbPort);
+        adbDevice = new AdbDevice(adbLocation, new AdbClient("127.0.0.1", adbServerPort, null));
+    }
 
-        ArrayList<String> devices = new ArrayList<>();
-        BufferedReader reader = null;
-        try {
-            reader = new BufferedReader(new InputStreamReader(listAVDsProcess.getInputStream()
-                    , StandardCharsets.UTF_8));
-            String readLine;
-            while ((readLine = reader.readLine()) != null) {
-                devices.add(readLine);
-            }
-        } finally {
-            if (reader != null) {
-                reader.close();
+    /**
+     * This method gets the AVD to start from the user.
+     *
+     * @return name of the AVD, or null if WSO2_AVD is to be created.
+     */
+    private String selectAVD() {
+        if (!new File(getAvdHome(), "WSO2_AVD.avd").isDirectory()) {
+            Scanner read = new Scanner(System.in, "UTF-8");
+            System.out.println("Do you want to create WSO2_AVD with default configs (Y/n)?: ");
+            if (read.next().toLowerCase().matches("y")) {
+                return null;
             }
         }
 
+        System.out.println("+----------------------------------------------------------------+");
+        System.out.println("|                        WSO2 Android TryIt                      |");
+        System.out.println("+----------------------------------------------------------------+");
+
+        List<String> devices = listAvds();
         if (devices.size() == 0) {
             System.out.println("No AVDs available in the system ");
-            startAVD();
+            return selectAVD();
         } else if (devices.size() == 1) {
-            runEmulator(devices.get(0));
+            return devices.get(0);
         } else {
             System.out.println("\nAvailable AVDs in the system\n");
             int count = 1;
@@ -335,8 +590,197 @@ public class TryIt {
             System.out.print("\nEnter AVD number to start (eg: 1) :");
             Scanner read = new Scanner(System.in, "UTF-8");
             int avdNo = read.nextInt();
-            runEmulator(devices.get(--avdNo));
+            return devices.get(--avdNo);
+        }
+    }
+
+    /**
+     * This method lists the AVDs in the system, same as emulator -list-avds without starting a process.
+     *
+     * @return names of the AVDs, sorted.
+     */
+    private List<String> listAvds() {
+        List<String> devices = new ArrayList<>();
+        File[] avdFiles = getAvdHome().listFiles((dir, name) -> name.endsWith(".ini"));
+        if (avdFiles != null) {
+            for (File avdFile : avdFiles) {
+                devices.add(avdFile.getName().substring(0, avdFile.getName().length() - ".ini".length()));
+            }
+            Collections.sort(devices);
+        }
+        return devices;
+    }
+
+    private File getAvdHome() {
+        return new File(userHome + File.separator + ".android" + File.separator + "avd");
+    }
+
+    /**
+     * This method starts an emulator for each AVD of the fleet and brings the agent up on all of them. The AVDs
+     * are given with the fleet_avds property, else they are cloned from the golden AVD.
+     *
+     * @param size - number of emulators to start.
+     * @throws IOException process throws  if an I/O error occurs.
+     */
+    private void startFleet(int size) throws IOException {
+        List<String> avds = getFleetAvds(size);
+        createFleet(size).start(avds.subList(0, size));
+    }
+
+    /**
+     * This method keeps a pool of pool_size booted devices with the agent running, booting up to pool_max of
+     * them while devices are leased, and serves the leases on the daemon_port of the loopback interface. The AVD
+     * of a failed device is booted again after a backoff of up to restart_backoff_max, and not after it failed
+     * pool_boot_failures times in a row.
+     *
+     * @throws IOException if the AVDs cannot be prepared or the port cannot be bound.
+     */
+    private void startDaemon() throws IOException {
+        int size = Integer.getInteger(Constants.POOL_SIZE, 2);
+        int max = Math.max(size, Integer.getInteger(Constants.POOL_MAX, 2 * size));
+        List<String> avds = getFleetAvds(max);
+        DevicePool pool = new DevicePool(createFleet(max), avds.subList(0, max), size,
+                new File(userHome, EmulatorConsole.AUTH_TOKEN_FILE),
+                TimeUnit.SECONDS.toMillis(Long.getLong(Constants.LEASE_TIMEOUT, 3600)),
+                TimeUnit.SECONDS.toMillis(Long.getLong(Constants.RESTART_BACKOFF_MAX, 300)),
+                Integer.getInteger(Constants.POOL_BOOT_FAILURES, 5));
+        // a lease asked for while the pool boots waits for the first device
+        PoolServer server = new PoolServer(pool, Integer.getInteger(Constants.DAEMON_PORT, 5040));
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "pool-server-stop"));
+        pool.start();
+    }
+
+    /**
+     * This method gives the AVDs of the emulators of the fleet, sized for the number of them.
+     *
+     * @param size - number of emulators to run at once.
+     * @return names of the AVDs, at least size of them.
+     * @throws IOException if the AVDs cannot be cloned or configured.
+     */
+    private List<String> getFleetAvds(int size) throws IOException {
+        String fleetAvds = System.getProperty(Constants.FLEET_AVDS);
+        List<String> avds = fleetAvds == null ? cloneGoldenAvd(size) : Arrays.asList(fleetAvds.split(","));
+        if (avds.size() < size) {
+            System.out.println("A fleet of " + size + " needs " + size + " AVDs, but " + avds.size()
+                    + " are available");
+            System.exit(0);
         }
+        // the clones are sized for the fleet, the AVDs given by the user are left as they are
+        AvdHardwareProfile profile = getHardwareProfile(size);
+        if (fleetAvds == null && profile != null) {
+            for (String avd : avds.subList(0, size)) {
+                File config = new File(getAvdHome(), avd + ".avd" + File.separator + "config.ini");
+                profile.writeConfig(config, config);
+            }
+        }
+        return avds;
+    }
+
+    /**
+     * This method sets up the fleet which starts the emulators, with a supervisor which restarts them.
+     *
+     * @param size - number of emulators to run at once.
+     * @return the fleet.
+     * @throws IOException if the agent cannot be read.
+     */
+    private EmulatorFleet createFleet(int size) throws IOException {
+        // mac os and windows needs hardware_Accelerated_execution_Manager
+        if (osSuffix.equals(Constants.MAC_OS) || osSuffix.equals(Constants.WINDOWS_OS)) {
+            installHAXM();
+        }
+        setExecutePermission(emulatorLocation);
+        setExecutePermission(qemuLocation);
+        ApkManifest agentManifest = readAgentManifest();
+
+        EmulatorFleet fleet = new EmulatorFleet(emulatorLocation, adbLocation, adbServerPort, getAvdHome(),
+                new File(workingDirectory), Integer.getInteger(Constants.FLEET_PARALLELISM,
+                Runtime.getRuntime().availableProcessors()));
+        fleet.setReadiness(getAvdReadyFiles(), getAvdReadyTimeout(),
+                TimeUnit.SECONDS.toMillis(Long.getLong(Constants.BOOT_TIMEOUT, 600)));
+        fleet.setAgent(getAgentLocation(), agentManifest);
+        fleet.setSupervisor(createSupervisor(Math.max(1, Math.min(size, 4))));
+        fleet.setEmulatorOptions(getLaunchProfile().getEmulatorOptions());
+        fleet.setLogcat(getLogcatCollector());
+        fleet.setMetrics(metrics);
+        return fleet;
+    }
+
+    /**
+     * This method creates the supervisor which restarts the emulators that exit or hang, configured by the
+     * health_check_interval, health_check_failures, restart_backoff_max and uptime_report_interval properties.
+     *
+     * @param threads - threads running the health checks.
+     * @return the supervisor.
+     */
+    private EmulatorSupervisor createSupervisor(int threads) {
+        EmulatorSupervisor supervisor = new EmulatorSupervisor(threads,
+                TimeUnit.SECONDS.toMillis(Long.getLong(Constants.HEALTH_CHECK_INTERVAL, 30)),
+                Integer.getInteger(Constants.HEALTH_CHECK_FAILURES, 3),
+                getAvdReadyTimeout() + TimeUnit.SECONDS.toMillis(Long.getLong(Constants.BOOT_TIMEOUT, 600)),
+                TimeUnit.SECONDS.toMillis(Long.getLong(Constants.RESTART_BACKOFF_MAX, 300)));
+        supervisor.reportEvery(TimeUnit.SECONDS.toMillis(Long.getLong(Constants.UPTIME_REPORT_INTERVAL, 600)));
+        return supervisor;
+    }
+
+    /**
+     * This method chooses the launch profile of the emulators from the launch_profile and emulator_gpu
+     * properties and the host, and prints it.
+     *
+     * @return the profile.
+     */
+    private LaunchProfile getLaunchProfile() {
+        if (launchProfile == null) {
+            launchProfile = LaunchProfile.forHost(osSuffix, System.getProperty(Constants.LAUNCH_PROFILE),
+                    System.getProperty(Constants.EMULATOR_GPU));
+            launchProfile.report();
+        }
+        return launchProfile;
+    }
+
+    /**
+     * This method sizes the hardware of the AVDs for the host and the number of devices, and prints the
+     * largest number of devices the host can run safely.
+     *
+     * @param devices - number of devices running at once.
+     * @return the profile, or null if the avd_profile property is static, to keep resources/config.ini as it is.
+     */
+    private AvdHardwareProfile getHardwareProfile(int devices) {
+        if ("static".equals(System.getProperty(Constants.AVD_PROFILE))) {
+            return null;
+        }
+        return hardwareProfiles.computeIfAbsent(devices, count -> {
+            AvdHardwareProfile profile = AvdHardwareProfile.forHost(HostResources.read(getAvdHome()), count);
+            profile.report();
+            return profile;
+        });
+    }
+
+    /**
+     * This method clones the golden AVD, given with the golden_avd property or WSO2_AVD by default, once for each
+     * device of the fleet. WSO2_AVD is created first if it does not exist.
+     *
+     * @param size - number of clones.
+     * @return names of the clones.
+     * @throws IOException process throws  if an I/O error occurs.
+     */
+    private List<String> cloneGoldenAvd(int size) throws IOException {
+        String golden = System.getProperty(Constants.GOLDEN_AVD, "WSO2_AVD");
+        if (!new File(getAvdHome(), golden + ".avd").isDirectory()) {
+            if (!golden.equals("WSO2_AVD")) {
+                System.out.println("Golden AVD " + golden + " is not available in the system");
+                System.exit(0);
+            }
+            createAVD();
+        }
+
+        String[] reflinkCommand = null;                 // windows has no reflink copy
+        if (osSuffix.equals(Constants.MAC_OS)) {
+            reflinkCommand = new String[]{"cp", "-c"};
+        } else if (!osSuffix.equals(Constants.WINDOWS_OS)) {
+            reflinkCommand = new String[]{"cp", "--reflink=always"};
+        }
+        return new AvdCloner(getAvdHome(), reflinkCommand).cloneAll(golden, golden + "_", size);
     }
 
     /**
@@ -361,6 +805,7 @@ public class TryIt {
         setExecutePermission(androidPath);
 
         System.out.println("Creating a new AVD device");
+        long start = System.nanoTime();
 
         if (new File(avdManagerPath).exists()) {
             setExecutePermission(avdManagerPath);
@@ -392,8 +837,13 @@ public class TryIt {
                 handleException("Unable to create new AVD", e);
             }
         }
-        Files.copy(Paths.get(configFileLocation), Paths.get(wso2ConfigFile), StandardCopyOption.REPLACE_EXISTING);
-        startAVD();
+        AvdHardwareProfile profile = getHardwareProfile(Integer.getInteger(Constants.FLEET_SIZE, 1));
+        if (profile == null) {
+            Files.copy(Paths.get(configFileLocation), Paths.get(wso2ConfigFile), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            profile.writeConfig(new File(configFileLocation), new File(wso2ConfigFile));
+        }
+        metrics.recordSince("avd_create", "WSO2_AVD", start);
     }
 
     /**
@@ -409,68 +859,35 @@ public class TryIt {
             installHAXM();
         }
         System.out.println("Starting : " + deviceId);
+        setExecutePermission(emulatorLocation);
         startEmulator(deviceId);
-        checkCacheImg(deviceId);
-    }
-
-    /**
-     * This method checks for the availability of android build tools in SDK location to run the AVD.
-     */
-    private void checkBuildTools() {
-        File buildTools = new File(androidSdkHome + File.separator + "build-tools"
-                + File.separator + "25.0.2");
-
-        if (!buildTools.exists()) {
-            getTools(System.getProperty(Constants.BUILD_TOOL_URL), "_Android-build-tool.zip");
-
-            File buildTool = new File(androidSdkHome + File.separator + "android-7.1.1");
-
-            //noinspection ResultOfMethodCallIgnored
-            new File(androidSdkHome + File.separator + "build-tools").mkdir();
-            //noinspection ResultOfMethodCallIgnored
-            buildTool.renameTo(new File(androidSdkHome + File.separator + "build-tools"
-                    + File.separator + "25.0.2"));
-        }
+        waitForAvdFiles(deviceId);
     }
 
     /**
-     * This method halts the system until the emulator is fully booted
+     * This method halts the system until the emulator is fully booted or the boot timeout is reached,
      * if boot process is not completed successfully, rest of the tasks won't be continued.
      *
      * @throws IOException process throws  if an I/O error occurs.
      */
     private void checkEmulatorBoot() throws IOException {
-        BufferedReader reader;
-        String readLine;
-        Boolean sysBootComplete = false;
-
-        do {
-            ProcessBuilder systemBoot = new ProcessBuilder(adbLocation, "shell", "getprop",
-                    "sys.boot_completed");
-            Process systemBootProcess = systemBoot.start();
-            try {
-                systemBootProcess.waitFor();
-            } catch (InterruptedException e) {
-                handleException("System boot process interuppted", e);
-            }
-            reader = new BufferedReader(new InputStreamReader(systemBootProcess.getInputStream(),
-                    StandardCharsets.UTF_8));
-            while ((readLine = reader.readLine()) != null) {
-                // if boot process is success the process gives 1 as output
-                if (readLine.contains("1")) {
-                    sysBootComplete = true;
-                }
-            }
-            System.out.print(".");
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException ignored) {
-                // ignored
-            } finally {
-                reader.close();
+        long timeout = TimeUnit.SECONDS.toMillis(Long.getLong(Constants.BOOT_TIMEOUT, 600));
+        try {
+            adbDevice.waitForBoot(timeout);
+            emulatorBooted = true;
+            long bootMillis = System.currentTimeMillis() - emulatorStartTime;
+            System.out.println("Boot completed " + bootMillis + " ms after the emulator was launched");
+            // a boot from the snapshot is kept apart, so it does not hide the cold boots in the metrics
+            metrics.record(quickBoot != null && quickBoot.isWarm() ? "boot_warm" : "boot_cold", selectedAvd,
+                    TimeUnit.MILLISECONDS.toNanos(bootMillis));
+            if (quickBoot != null) {
+                quickBoot.recordBoot(bootMillis);
             }
-        } while (!sysBootComplete);
-        System.out.println();
+        } catch (InterruptedException e) {
+            handleException("System boot process interuppted", e);
+        } catch (TimeoutException e) {
+            handleException("Emulator did not boot within " + timeout + " ms", e);
+        }
     }
 
     /**
@@ -503,11 +920,7 @@ public class TryIt {
             }
         }
 
-        adbLocation = androidSdkHome + File.separator + "platform-tools" + File.separator + "adb";
-        if (osSuffix.equals(Constants.WINDOWS_OS)) {
-            adbLocation += Constants.WINDOWS_EXTENSION_EXE;
-        }
-        setExecutePermission(adbLocation);
+        setToolLocations();
     }
 
     /**
@@ -523,124 +936,73 @@ public class TryIt {
     }
 
     /**
-     * This method check for the android agent in the specified AVD and installs it if not available.
+     * This method check for the android agent in the specified AVD and installs it if the same version, signed
+     * with the same certificates, is not installed.
      *
-     * @return package name and act name.
+     * @param agentManifest - manifest of the agent apk.
      * @throws IOException process throws  if an I/O error occurs.
      */
-    private String[] checkForAgent() throws IOException {
-        String apkFileLocation = workingDirectory + File.separator + "resources" + File.separator + "android-agent.apk";
-        String aaptLocation = androidSdkHome + File.separator + "build-tools" + File.separator + "25.0.2"
-                + File.separator + "aapt";
-
-        if (osSuffix.equals(Constants.WINDOWS_OS)) {
-            aaptLocation += Constants.WINDOWS_EXTENSION_EXE;
-        }
-        setExecutePermission(aaptLocation);
-
-        //process to get the name of package and launchable-activity available in android agent apk file
-        ProcessBuilder badgingApkFileProcessBuilder = new ProcessBuilder(aaptLocation, "d", "badging",
-                apkFileLocation);
-        Process badgingApkFileProcess = badgingApkFileProcessBuilder.start();
-
-        String pkg = null;
-        String activity = null;
-        Boolean hasAgent = false;
-        String readLine;
-        BufferedReader reader = null;
-
-        try {
-            reader = new BufferedReader(new InputStreamReader(badgingApkFileProcess.getInputStream(),
-                    StandardCharsets.UTF_8));
-
-
-            while ((readLine = reader.readLine()) != null) {
-                if (readLine.contains("package")) {
-                    pkg = readLine.substring(readLine.indexOf(Constants.NAME) + 6).substring(0,
-                            readLine.substring(readLine.indexOf(Constants.NAME)
-                                    + 6).indexOf("'"));
-                }
-                if (readLine.contains("launchable-activity")) {
-                    activity = readLine.substring(readLine.indexOf(Constants.NAME) + 6).substring(0,
-                            readLine.substring(readLine.indexOf(Constants.NAME)
-                                    + 6).indexOf("'"));
-                }
-            }
-        } finally {
-            if (reader != null) {
-                reader.close();
-            }
-        }
-
-        ProcessBuilder listPackages = new ProcessBuilder(adbLocation, "shell", "pm", "list", "packages");
-        Process listPackagesProcess = listPackages.start();
-        try {
-            listPackagesProcess.waitFor();
-        } catch (InterruptedException e) {
-            System.out.println("Unable to read available packages in the current AVD");
+    private void checkForAgent(ApkManifest agentManifest) throws IOException {
+        long start = System.nanoTime();
+        if (adbDevice.isInstalled(agentManifest)) {
+            metrics.recordSince("agent_install", agentManifest.getPackageName(), start);
+            System.out.println("Agent " + agentManifest.getVersionName() + " (" + agentManifest.getVersionCode()
+                    + ") is already installed, checked in " + millis(start) + " ms");
+        } else {
+            installAgent(agentManifest.getPackageName());
+            metrics.recordSince("agent_install", agentManifest.getPackageName(), start);
+            System.out.println("Agent " + agentManifest.getVersionName() + " (" + agentManifest.getVersionCode()
+                    + ") installed in " + millis(start) + " ms");
         }
+    }
 
-        try {
-            reader = new BufferedReader(new InputStreamReader(listPackagesProcess.getInputStream(),
-                    StandardCharsets.UTF_8));
-
-            while ((readLine = reader.readLine()) != null) {
-                if (readLine.contains("package:" + pkg)) {
-                    hasAgent = true;
-                }
-            }
-        } finally {
-            reader.close();
-        }
+    private static long millis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
 
+    private String getAgentLocation() {
+        return workingDirectory + File.separator + "resources" + File.separator + "android-agent.apk";
+    }
 
-        if (!hasAgent) {
-            installAgent();
-        }
-        return new String[]{pkg, activity};
+    /**
+     * This method reads the package, the version and the launchable activity of the android agent from the
+     * manifest in the APK, parsed only the first time the APK is seen.
+     *
+     * @return manifest of the agent apk.
+     * @throws IOException process throws  if an I/O error occurs.
+     */
+    private ApkManifest readAgentManifest() throws IOException {
+        return apkMetadataCache.get(new File(getAgentLocation()));
     }
 
     /**
      * This method installs the Android Agent ( WSO2 iot agent ).
      *
+     * @param pkg - package name of the agent.
      * @throws IOException process start throws  if an I/O error occurs.
      */
-    private void installAgent() throws IOException {
-        String androidAgentLocation = workingDirectory + File.separator + "resources" + File.separator
-                + "android-agent.apk";
+    private void installAgent(String pkg) throws IOException {
+        String androidAgentLocation = getAgentLocation();
 
         System.out.println("Installing agent ...");
-        ProcessBuilder installAgentProcessBuilder = new ProcessBuilder(adbLocation, "install",
-                androidAgentLocation);
-        Process installAgentProcess = installAgentProcessBuilder.start();
-
         try {
-            installAgentProcess.waitFor();
-        } catch (InterruptedException e) {
+            adbDevice.install(androidAgentLocation, pkg);
+        } catch (IOException e) {
             System.out.println("WSO2 Agent installation failed");
-            installAgent();
+            throw e;
         }
     }
 
     /**
      * This method starts the package (wso2.iot.agent).
      *
-     * @param agents package name and launchable activity name.
+     * @param agentManifest manifest of the agent apk.
      * @throws IOException process throws  if an I/O error occurs.
      */
-    private void startPackage(String[] agents) throws IOException {
-        String pkg = agents[0];
-        String activity = agents[1];
-
-        ProcessBuilder pkgStartProcessBuilder = new ProcessBuilder(adbLocation, "shell", "am", "start",
-                "-n", pkg + "/" + activity);
-        Process pkgStartProcess = pkgStartProcessBuilder.start();
-
-        try {
-            pkgStartProcess.waitFor();
-        } catch (InterruptedException e) {
-            handleException("Package start process interuptted", e);
-        }
+    private void startPackage(ApkManifest agentManifest) throws IOException {
+        long start = System.nanoTime();
+        adbDevice.startActivity(agentManifest.getPackageName(), agentManifest.getLaunchableActivity());
+        metrics.recordSince("agent_launch", agentManifest.getPackageName(), start);
     }
 
     /**
@@ -650,12 +1012,9 @@ public class TryIt {
         File platform = new File(androidSdkHome + File.separator + "platforms" + File.separator + "android-23");
 
         if (!platform.isDirectory()) {
-            getTools(System.getProperty(Constants.PLATFORM_URL), "_Android-platforms.zip");
-            //noinspection ResultOfMethodCallIgnored
-            new File(androidSdkHome + File.separator + "platforms").mkdir();
-            //noinspection ResultOfMethodCallIgnored
-            new File(androidSdkHome + File.separator + "android-6.0").renameTo(new File(androidSdkHome
-                    + File.separator + "platforms" + File.separator + "android-23"));
+            getSdkProvisioner().add(new SdkComponent("_Android-platforms.zip",
+                    System.getProperty(Constants.PLATFORM_URL), "_Android-platforms.zip", "android-6.0",
+                    "platforms" + File.separator + "android-23"));
         }
     }
 
@@ -667,14 +1026,10 @@ public class TryIt {
                 + File.separator + "android-23" + File.separator + "default");
 
         if (!systemImages.isDirectory()) {
-            getTools(System.getProperty(Constants.SYSTEM_IMAGE_URL), "_sys-images.zip");
-            //noinspection ResultOfMethodCallIgnored
-            new File(androidSdkHome + File.separator + "system-images" + File.separator
-                    + "android-23" + File.separator + "default").mkdirs();
-            //noinspection ResultOfMethodCallIgnored
-            new File(androidSdkHome + File.separator + "x86").renameTo(new File(androidSdkHome
-                    + File.separator + "system-images" + File.separator + "android-23" + File.separator
-                    + "default" + File.separator + "x86"));
+            getSdkProvisioner().add(new SdkComponent("_sys-images.zip",
+                    System.getProperty(Constants.SYSTEM_IMAGE_URL), "_sys-images.zip", "x86",
+                    "system-images" + File.separator + "android-23" + File.separator + "default"
+                            + File.separator + "x86"));
         }
     }
 
@@ -730,47 +1085,278 @@ public class TryIt {
     }
 
     /**
-     * This method starts the Android emulator for specific device name.
+     * This method starts the Android emulator for specific device name. The emulator is owned by a supervisor,
+     * which restarts it and the agent if it exits or hangs after the boot, until the device shell is closed.
      *
      * @param deviceId - name of the device to start the emulator.
      */
     private void startEmulator(String deviceId) {
-        String qemuSystemFileLocation = androidSdkHome + File.separator + "tools" + File.separator
-                + "qemu" + File.separator;
+        setExecutePermission(qemuLocation);
+        List<String> options = new ArrayList<>(getLaunchProfile().getEmulatorOptions());
+        int consolePort = 0;
+        if (Boolean.getBoolean(Constants.QUICK_BOOT)) {
+            quickBoot = new QuickBoot(new File(getAvdHome(), deviceId + ".avd"),
+                    System.getProperty(Constants.SNAPSHOT_NAME, "wso2_agent"));
+            options.addAll(quickBoot.getEmulatorOptions());
+            consolePort = getConsolePort();
+        }
+        final int port = consolePort;
+        emulatorSupervisor = createSupervisor(1);
+        supervisedEmulator = emulatorSupervisor.supervise(deviceId, () -> {
+            TryItEmulator emulator = new TryItEmulator(deviceId, emulatorLocation, port,
+                    new File("emulator-" + deviceId + ".log"), options);
+            System.out.println("Emulator command: " + String.join(" ", emulator.getCommand()));
+            emulator.getEvents().subscribe(this::onEmulatorEvent);
+            return emulator;
+        }, () -> adbDevice.isResponsive(EmulatorFleet.HEALTH_CHECK_TIMEOUT), this::recoverEmulator);
+        emulatorLaunched = System.nanoTime();
+        emulatorStartTime = System.currentTimeMillis();
+        System.out.println("Emulator launched " + (emulatorStartTime
+                - ManagementFactory.getRuntimeMXBean().getStartTime()) + " ms after start");
+    }
 
-        switch (osSuffix) {
-            case Constants.MAC_OS:
-                qemuSystemFileLocation += "darwin" + "-x86_64" + File.separator + "qemu-system-i386";
+    /**
+     * This method brings the agent up again on the emulator restarted by the supervisor.
+     */
+    private void recoverEmulator() {
+        try {
+            adbDevice.waitForBoot(TimeUnit.SECONDS.toMillis(Long.getLong(Constants.BOOT_TIMEOUT, 600)));
+            startPackage(agent);
+            System.out.println("Emulator recovered");
+        } catch (Exception e) {
+            System.out.println("Emulator not recovered: " + e.getMessage());
+        }
+    }
+
+    /**
+     * This method stops the supervision of the emulator once the device shell is closed, so an emulator closed by
+     * the user is not started again. A running emulator is left to the user.
+     */
+    private void stopSupervision() {
+        if (supervisedEmulator != null) {
+            emulatorSupervisor.detach(supervisedEmulator);
+        }
+    }
+
+    /**
+     * This method prints the milestones of the emulator as they happen and terminates if the emulator exits
+     * before the boot is completed, instead of waiting for the timeouts.
+     *
+     * @param event - the milestone.
+     */
+    private void onEmulatorEvent(EmulatorEvent event) {
+        switch (event.getType()) {
+            case WARNING:
                 break;
-            case Constants.WINDOWS_OS:
-                qemuSystemFileLocation += osSuffix + "-x86_64" + File.separator + "qemu-system-i386.exe";
+            case ERROR:
+                System.out.println(event.getLine());
+                break;
+            case PROCESS_EXITED:
+                if (!emulatorBooted) {
+                    System.out.println("Emulator exited with code " + event.getLine() + " " + event.getMillis()
+                            + " ms after it was launched, see the emulator log");
+                    System.exit(0);
+                }
+                break;
+            case PROCESS_STARTED:
+                System.out.println("Emulator " + event);
                 break;
             default:
-                qemuSystemFileLocation += osSuffix + "-x86_64" + File.separator + "qemu-system-i386";
+                System.out.println("Emulator " + event);
+                metrics.record("emulator_" + event.getType().name().toLowerCase(), selectedAvd,
+                        TimeUnit.MILLISECONDS.toNanos(event.getMillis()));
         }
-        setExecutePermission(qemuSystemFileLocation);
-        ExecutorService service = Executors.newSingleThreadExecutor();
-        service.execute(new TryItEmulator(deviceId, emulatorLocation));
     }
 
     /**
-     * This method halts the system the cache.img file is created for the particular AVD started.
+     * This method writes the time of each phase of the run to tryit-metrics.json and tryit-metrics.prom in the
+     * folder given with the metrics_directory property, the working directory by default.
+     */
+    private void writeMetrics() {
+        metrics.write(new File(System.getProperty(Constants.METRICS_DIRECTORY, workingDirectory)), "tryit-metrics");
+    }
+
+    /**
+     * This method halts the system until the emulator creates the files of the particular AVD started,
+     * cache.img and userdata-qemu.img unless others are given with the avd_ready_files property.
      *
      * @param deviceId - name of the AVD.
      */
-    private void checkCacheImg(String deviceId) {
-        File cacheImg = new File(userHome + File.separator + ".android"
-                + File.separator + "avd" + File.separator + deviceId + ".avd" + File.separator + "cache.img");
+    private void waitForAvdFiles(String deviceId) {
+        File avdFolder = new File(getAvdHome(), deviceId + ".avd");
+        long timeout = getAvdReadyTimeout();
 
-        while (!cacheImg.exists()) {
-            System.out.print(".");
+        try {
+            Map<String, Long> stages = new AvdReadinessWatcher().waitFor(avdFolder, getAvdReadyFiles(),
+                    emulatorLaunched, timeout);
+            for (Map.Entry<String, Long> stage : stages.entrySet()) {
+                System.out.println(stage.getKey() + " created " + stage.getValue()
+                        + " ms after the emulator was launched");
+            }
+            metrics.record("emulator_spawn", deviceId,
+                    TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - emulatorStartTime));
+        } catch (IOException e) {
+            handleException("Unable to watch the virtual device folder " + avdFolder, e);
+        } catch (InterruptedException e) {
+            handleException("Virtual device not loaded properly, process interuptted", e);
+        } catch (TimeoutException e) {
+            handleException("Virtual device not loaded within " + timeout + " ms", e);
+        }
+    }
+
+    /**
+     * This method takes the snapshot the next starts of the AVD resume from, once the agent is started.
+     */
+    private void saveSnapshot() {
+        System.out.println("Saving snapshot " + quickBoot.getSnapshotName() + " ...");
+        try (EmulatorConsole console = openConsole()) {
+            System.out.println("Snapshot saved in " + quickBoot.save(console) + " ms");
+        } catch (IOException e) {
+            System.out.println("Unable to save snapshot " + quickBoot.getSnapshotName() + ", the next start is cold: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * This method brings the running emulator back to the snapshot taken after the agent was started,
+     * eg: between test runs.
+     */
+    private void resetToSnapshot() {
+        String snapshotName = System.getProperty(Constants.SNAPSHOT_NAME, "wso2_agent");
+        try (EmulatorConsole console = openConsole()) {
+            System.out.println("Reset to snapshot " + snapshotName + " in " + QuickBoot.reset(console, snapshotName)
+                    + " ms");
+        } catch (IOException e) {
+            handleException("Unable to reset to snapshot " + snapshotName, e);
+        }
+    }
+
+    /**
+     * This method gives the collector which streams the logcat of the devices into the logcat folder, unless
+     * the logcat_store property is false. The collector writes what it has in memory when TryIt exits.
+     *
+     * @return the collector, or null if disabled.
+     */
+    private synchronized LogcatCollector getLogcatCollector() {
+        if (logcatCollector == null && !"false".equals(System.getProperty(Constants.LOGCAT_STORE))) {
+            logcatCollector = new LogcatCollector(getLogcatFolder(),
+                    Long.getLong(Constants.LOGCAT_MAX_SIZE, 256) * 1024 * 1024);
+            Runtime.getRuntime().addShutdownHook(new Thread(logcatCollector::stop));
+        }
+        return logcatCollector;
+    }
+
+    private File getLogcatFolder() {
+        return new File(workingDirectory, "logcat");
+    }
+
+    /**
+     * This method starts streaming the logcat of the device. The device runs without it if it fails.
+     *
+     * @param avd    - name of the AVD, which names its store.
+     * @param client - adb client of the device.
+     */
+    private void collectLogcat(String avd, AdbClient client) {
+        LogcatCollector collector = getLogcatCollector();
+        if (collector == null) {
+            return;
+        }
+        try {
+            collector.collect(avd, client);
+        } catch (IOException e) {
+            System.out.println("Unable to collect the logcat of " + avd + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * This method prints the stored logcat entries of the logcat_avd AVD with the logcat_tag tag and the
+     * logcat_pid pid, from the last logcat_since seconds, all of them by default.
+     */
+    private void queryLogcat() {
+        String avd = System.getProperty(Constants.LOGCAT_AVD, "WSO2_AVD");
+        long since = Long.getLong(Constants.LOGCAT_SINCE, 0);
+        long from = since > 0 ? TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis())
+                - TimeUnit.SECONDS.toNanos(since) : 0;
+        long start = System.nanoTime();
+        try (LogcatStore store = new LogcatStore(new File(getLogcatFolder(), avd), Long.MAX_VALUE)) {
+            long matched = store.query(System.getProperty(Constants.LOGCAT_TAG),
+                    Integer.getInteger(Constants.LOGCAT_PID, 0), from, Long.MAX_VALUE, System.out::println);
+            System.out.println(matched + " entries of " + avd + " found in " + millis(start) + " ms");
+        } catch (IOException e) {
+            handleException("Unable to read the logcat of " + avd, e);
+        }
+    }
+
+    private static boolean hasTraces() {
+        return System.getProperty(Constants.TRACE_GPS) != null || System.getProperty(Constants.TRACE_BATTERY) != null
+                || System.getProperty(Constants.TRACE_SENSORS) != null;
+    }
+
+    /**
+     * This method replays the GPS, battery and sensor traces given by the trace_gps, trace_battery and
+     * trace_sensors properties on the console of the running emulator, at the trace_rate readings a second
+     * of each trace or at the times in the traces, trace_speed times faster. When TryIt exits, the replay stops
+     * after the batch being sent and prints what it replayed.
+     *
+     * @throws IOException if a trace cannot be read or the console is closed.
+     */
+    private void replayTraces() throws IOException {
+        double rateHz = Double.parseDouble(System.getProperty(Constants.TRACE_RATE, "0"));
+        List<EmulatorTrace> traces = new ArrayList<>();
+        String[] properties = {Constants.TRACE_GPS, Constants.TRACE_BATTERY, Constants.TRACE_SENSORS};
+        EmulatorTrace.Kind[] kinds = {EmulatorTrace.Kind.GPS, EmulatorTrace.Kind.BATTERY, EmulatorTrace.Kind.SENSOR};
+        for (int i = 0; i < properties.length; i++) {
+            String location = System.getProperty(properties[i]);
+            if (location != null) {
+                traces.add(EmulatorTrace.read(new File(location), kinds[i], rateHz));
+            }
+        }
+        EmulatorTrace trace = EmulatorTrace.merge(traces);
+        System.out.println("Replaying " + trace.size() + " trace commands on the console port " + getConsolePort());
+        try (EmulatorConsole console = new EmulatorConsole("127.0.0.1", getConsolePort(),
+                new File(userHome, EmulatorConsole.AUTH_TOKEN_FILE), (int) TimeUnit.SECONDS.toMillis(10))) {
+            TraceReplayer replayer = new TraceReplayer(console, trace,
+                    Double.parseDouble(System.getProperty(Constants.TRACE_SPEED, "1")),
+                    Boolean.getBoolean(Constants.TRACE_LOOP));
+            CountDownLatch replayed = new CountDownLatch(1);
+            Thread stopReplay = new Thread(() -> {
+                replayer.stop();
+                try {
+                    replayed.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                    // exiting anyway
+                }
+            }, "trace-replay-stop");
+            Runtime.getRuntime().addShutdownHook(stopReplay);
             try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                handleException("Virtual device not loaded properly, process interuptted", e);
+                replayer.replay();
+            } finally {
+                replayed.countDown();
+                try {
+                    Runtime.getRuntime().removeShutdownHook(stopReplay);
+                } catch (IllegalStateException ignored) {
+                    // already exiting
+                }
             }
         }
-        System.out.println();
+    }
+
+    private EmulatorConsole openConsole() throws IOException {
+        // saving and loading a snapshot takes a while for a large RAM size
+        return new EmulatorConsole("127.0.0.1", getConsolePort(), new File(userHome, EmulatorConsole.AUTH_TOKEN_FILE),
+                (int) TimeUnit.MINUTES.toMillis(2));
+    }
+
+    private static int getConsolePort() {
+        return Integer.getInteger(Constants.CONSOLE_PORT, EmulatorFleet.FIRST_CONSOLE_PORT);
+    }
+
+    private static List<String> getAvdReadyFiles() {
+        return Arrays.asList(System.getProperty(Constants.AVD_READY_FILES, "cache.img,userdata-qemu.img").split(","));
+    }
+
+    private static long getAvdReadyTimeout() {
+        return TimeUnit.SECONDS.toMillis(Long.getLong(Constants.AVD_READY_TIMEOUT, 120));
     }
 
     /**
@@ -780,6 +1366,9 @@ public class TryIt {
      * @param fileName name of the file to set execution permission.
      */
     private void setExecutePermission(String fileName) {
+        if (verifiedTools.contains(fileName)) {
+            return;
+        }
         if (!new File(fileName).canExecute()) {
             if (!new File(fileName).setExecutable(true)) {
                 System.out.println("Set the Execute permission of : " + fileName + " to continue");
@@ -789,69 +1378,20 @@ public class TryIt {
     }
 
     /**
-     * This method extracts the zip folder.
+     * This method extracts the zip folder in parallel and deletes it.
      *
      * @param zipFile -Name of zip to extract
      */
     private void extractFolder(String zipFile) {
-        int BUFFER = 2048;
         File file = new File(zipFile);
-        ZipFile zip;
+        long start = System.nanoTime();
         try {
-            zip = new ZipFile(file);
-            String newPath = zipFile.substring(0, zipFile.lastIndexOf(File.separator));
-
-            //noinspection ResultOfMethodCallIgnored
-            new File(newPath).mkdirs();
-
-            Enumeration zipFileEntries = zip.entries();
-
-            while (zipFileEntries.hasMoreElements()) {
-                // grab a zip file entry
-                ZipEntry entry = (ZipEntry) zipFileEntries.nextElement();
-                String currentEntry = entry.getName();
-                File destFile = new File(newPath, currentEntry);
-                File destinationParent = destFile.getParentFile();
-
-                if (destinationParent == null) {
-                    destFile.mkdirs();
-                    continue;
-                } else {
-                    //noinspection ResultOfMethodCallIgnored
-                    destinationParent.mkdirs();
-                }
-
-                if (!entry.isDirectory()) {
-                    BufferedInputStream is;
-                    try {
-                        is = new BufferedInputStream(zip.getInputStream(entry));
-                        int currentByte;
-                        // establish buffer for writing file
-                        byte data[] = new byte[BUFFER];
-
-                        // write the current file to disk
-                        FileOutputStream fos = new FileOutputStream(destFile);
-                        BufferedOutputStream dest = new BufferedOutputStream(fos,
-                                BUFFER);
-
-                        // read and write until last byte is encountered
-                        while ((currentByte = is.read(data, 0, BUFFER)) != -1) {
-                            dest.write(data, 0, currentByte);
-                        }
-                        dest.flush();
-                        dest.close();
-                        is.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        System.exit(0);
-                    }
-                }
-            }
-            zip.close();
+            long extracted = zipExtractor.extract(file, file.getParentFile());
+            metrics.record("extract", file.getName(), System.nanoTime() - start, extracted);
         } catch (IOException e) {
             handleException("Extraction of " + zipFile + " failed", e);
         }
-        if (!new File(zipFile).delete()) {
+        if (!file.delete()) {
             System.out.println("Downloaded zip : " + zipFile + " - not deleted");
         }
     }
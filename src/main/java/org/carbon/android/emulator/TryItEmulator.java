@@ -18,58 +18,100 @@
 
 package org.carbon.android.emulator;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
- * This class starts the Emulator with the name ID specified and log the output to emulator.log.
+ * This class starts the Emulator with the name ID specified and logs the output to emulator-ID.log.
  */
 public class TryItEmulator implements Runnable {
     private String deviceId;                    // name of the AVD to start
     private String emulatorLocation;            // location of the executable file emulator
+    private int consolePort;                    // console port of the emulator, 0 to let the emulator choose
+    private File logFile;
+    private List<String> options;               // further options of the emulator
+    private EmulatorEvents events = new EmulatorEvents();
+    private volatile Process process;
+    private volatile boolean destroyed;
 
     TryItEmulator(String id, String emulator) {
+        this(id, emulator, 0, new File("emulator-" + id + ".log"), Collections.<String>emptyList());
+    }
+
+    TryItEmulator(String id, String emulator, int port, File log, List<String> emulatorOptions) {
         deviceId = id;
         emulatorLocation = emulator;
+        consolePort = port;
+        logFile = log;
+        options = emulatorOptions;
+    }
+
+    /**
+     * This method gives the milestones of the emulator, subscribe before running it to receive all of them.
+     *
+     * @return the events of the emulator.
+     */
+    EmulatorEvents getEvents() {
+        return events;
+    }
+
+    /**
+     * This method stops the emulator, forcibly if it does not exit within the grace time.
+     *
+     * @param graceMillis - time given to the emulator to exit.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    void destroy(long graceMillis) throws InterruptedException {
+        destroyed = true;
+        Process running = process;
+        if (running == null) {
+            return;
+        }
+        running.destroy();
+        if (!running.waitFor(graceMillis, TimeUnit.MILLISECONDS)) {
+            running.destroyForcibly().waitFor();
+        }
+    }
+
+    /**
+     * This method gives the command line the emulator is started with.
+     *
+     * @return the emulator and its arguments.
+     */
+    List<String> getCommand() {
+        List<String> command = new ArrayList<>(Arrays.asList(emulatorLocation, "-avd", deviceId));
+        if (consolePort != 0) {
+            // the adb port is the console port + 1
+            command.addAll(Arrays.asList("-port", String.valueOf(consolePort)));
+        }
+        command.addAll(options);
+        return command;
     }
 
     public void run() {
-        String readLine;
-        BufferedReader reader = null;
-        Writer writer = null;
-        ProcessBuilder processBuilder = new ProcessBuilder(emulatorLocation, "-avd", deviceId);
+        ProcessBuilder processBuilder = new ProcessBuilder(getCommand());
+        EmulatorLog log = new EmulatorLog(logFile, Long.getLong(Constants.EMULATOR_LOG_MAX_SIZE, 10) * 1024 * 1024,
+                Integer.getInteger(Constants.EMULATOR_LOG_FILES, 5));
         try {
-            Process process = processBuilder.start();
-            reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
-            writer = new OutputStreamWriter(new FileOutputStream(new File("emulator.log")), StandardCharsets.UTF_8);
-            while ((readLine = reader.readLine()) != null) {
-                writer.append(readLine);
-                writer.append(readLine);
+            process = processBuilder.start();
+            if (destroyed) {
+                process.destroyForcibly();      // destroyed while starting
             }
+            events.started();
+            log.attach(process, deviceId, events);
+            int exitCode = process.waitFor();
+            log.close();
+            events.exited(exitCode);
         } catch (IOException e) {
             e.printStackTrace();
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException ignored) {
-                    // reader close exception ignored
-                }
-            }
-            if (writer != null) {
-                try {
-                    writer.close();
-                } catch (IOException ignored) {
-                    // writer close exception ignored
-                }
-            }
-
+            events.exited(-1);
+        } catch (InterruptedException ignored) {
+            // the log is left to the daemon threads
         }
     }
 }
@@ -0,0 +1,299 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * This class extracts zip archives by spreading the entries across a fork-join pool. Stored entries are
+ * copied with channel transfers, deflated entries are inflated into pooled buffers and the unix
+ * permissions recorded in the archive are restored.
+ */
+class ZipExtractor {
+    private static final int BUFFER = 1024 * 1024;
+    private static final long BATCH_BYTES = 8 * 1024 * 1024;   // bytes of entries one task extracts serially
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int UNIX_HOST = 3;
+
+    private ForkJoinPool pool;
+    private BlockingQueue<byte[]> buffers;
+
+    ZipExtractor(int parallelism) {
+        pool = new ForkJoinPool(Math.max(1, parallelism));
+        buffers = new ArrayBlockingQueue<>(pool.getParallelism() * 2);
+    }
+
+    /**
+     * This method extracts the zip archive into the destination folder.
+     *
+     * @param zipFile     - the zip archive.
+     * @param destination - the folder to extract to.
+     * @return number of bytes extracted.
+     * @throws IOException if the archive cannot be read or an entry cannot be written.
+     */
+    long extract(File zipFile, File destination) throws IOException {
+        File root = destination.getCanonicalFile();
+        long start = System.nanoTime();
+        long total = 0;
+
+        try (ZipFile zip = new ZipFile(zipFile);
+             FileChannel channel = FileChannel.open(zipFile.toPath(), StandardOpenOption.READ)) {
+            List<Entry> entries = readCentralDirectory(channel);
+            if (entries == null) {
+                entries = listEntries(zip);
+            }
+            List<Entry> files = new ArrayList<>();
+
+            // create the folders up front so the workers never race on mkdirs
+            for (Entry entry : entries) {
+                entry.destination = new File(root, entry.name).getCanonicalFile();
+                if (!entry.destination.toPath().startsWith(root.toPath())) {
+                    throw new IOException("Entry " + entry.name + " is outside of " + destination);
+                }
+                if (entry.name.endsWith("/")) {
+                    //noinspection ResultOfMethodCallIgnored
+                    entry.destination.mkdirs();
+                } else {
+                    //noinspection ResultOfMethodCallIgnored
+                    entry.destination.getParentFile().mkdirs();
+                    files.add(entry);
+                    total += entry.size;
+                }
+            }
+            pool.invoke(new ExtractTask(zip, channel, files, 0, files.size()));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        System.out.println(String.format("Extracted %s: %.1f MB in %.1f s (%.2f MB/s)", zipFile.getName(),
+                total / 1048576.0, seconds, total / 1048576.0 / seconds));
+        return total;
+    }
+
+    /**
+     * This method reads the entries from the central directory of the archive, including the offset of
+     * the local header and the unix permissions which java.util.zip does not expose.
+     *
+     * @param channel - channel of the zip archive.
+     * @return the entries, or null if the archive needs zip64 or has an unexpected layout.
+     * @throws IOException if the archive cannot be read.
+     */
+    private List<Entry> readCentralDirectory(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int tailSize = (int) Math.min(size, 0xFFFF + 22);
+        ByteBuffer tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, tail, size - tailSize);
+
+        int eocd = -1;
+        for (int i = tailSize - 22; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            return null;
+        }
+        int count = tail.getShort(eocd + 10) & 0xFFFF;
+        long directorySize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+        long directoryOffset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || directoryOffset == 0xFFFFFFFFL || directoryOffset + directorySize > size) {
+            return null;
+        }
+
+        ByteBuffer directory = ByteBuffer.allocate((int) directorySize).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, directory, directoryOffset);
+        List<Entry> entries = new ArrayList<>(count);
+        int position = 0;
+
+        for (int i = 0; i < count; i++) {
+            if (directory.getInt(position) != CENTRAL_DIRECTORY_HEADER) {
+                return null;
+            }
+            Entry entry = new Entry();
+            int madeBy = (directory.getShort(position + 4) & 0xFFFF) >> 8;
+            entry.method = directory.getShort(position + 10) & 0xFFFF;
+            entry.compressedSize = directory.getInt(position + 20) & 0xFFFFFFFFL;
+            entry.size = directory.getInt(position + 24) & 0xFFFFFFFFL;
+            int nameLength = directory.getShort(position + 28) & 0xFFFF;
+            int extraLength = directory.getShort(position + 30) & 0xFFFF;
+            int commentLength = directory.getShort(position + 32) & 0xFFFF;
+            int attributes = directory.getInt(position + 38);
+            entry.localHeaderOffset = directory.getInt(position + 42) & 0xFFFFFFFFL;
+            if (entry.size == 0xFFFFFFFFL || entry.compressedSize == 0xFFFFFFFFL
+                    || entry.localHeaderOffset == 0xFFFFFFFFL) {
+                return null;
+            }
+            entry.name = new String(directory.array(), position + 46, nameLength, StandardCharsets.UTF_8);
+            entry.mode = madeBy == UNIX_HOST ? (attributes >>> 16) & 0xFFFF : 0;
+            entries.add(entry);
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    /**
+     * This method lists the entries through java.util.zip when the central directory cannot be read directly.
+     * Entries listed this way are always inflated through the ZipFile and keep the default permissions.
+     */
+    private List<Entry> listEntries(ZipFile zip) {
+        List<Entry> entries = new ArrayList<>();
+        Enumeration<? extends ZipEntry> zipFileEntries = zip.entries();
+
+        while (zipFileEntries.hasMoreElements()) {
+            ZipEntry zipEntry = zipFileEntries.nextElement();
+            Entry entry = new Entry();
+            entry.name = zipEntry.getName();
+            entry.method = ZipEntry.DEFLATED;
+            entry.size = Math.max(0, zipEntry.getSize());
+            entry.localHeaderOffset = -1;
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    /**
+     * This method writes one entry to its destination file.
+     */
+    private void extractEntry(ZipFile zip, FileChannel channel, Entry entry) throws IOException {
+        if (entry.method == ZipEntry.STORED && entry.localHeaderOffset >= 0) {
+            ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, entry.localHeaderOffset);
+            long dataOffset = entry.localHeaderOffset + LOCAL_HEADER_SIZE + (header.getShort(26) & 0xFFFF)
+                    + (header.getShort(28) & 0xFFFF);
+
+            try (FileChannel out = FileChannel.open(entry.destination.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long transferred = 0;
+                while (transferred < entry.size) {
+                    long count = channel.transferTo(dataOffset + transferred, entry.size - transferred, out);
+                    if (count <= 0) {
+                        throw new IOException("Unexpected end of " + entry.name);
+                    }
+                    transferred += count;
+                }
+            }
+        } else {
+            byte[] data = buffers.poll();
+            if (data == null) {
+                data = new byte[BUFFER];
+            }
+            try (InputStream is = zip.getInputStream(zip.getEntry(entry.name));
+                 FileOutputStream fos = new FileOutputStream(entry.destination)) {
+                int read;
+                while ((read = is.read(data)) != -1) {
+                    fos.write(data, 0, read);
+                }
+            } finally {
+                buffers.offer(data);
+            }
+        }
+        if ((entry.mode & 0111) != 0) {
+            //noinspection ResultOfMethodCallIgnored
+            entry.destination.setExecutable(true, (entry.mode & 0011) == 0);
+        }
+    }
+
+    /**
+     * This method reads from the channel at the position until the buffer is full.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of zip archive");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * This class holds the details of an entry needed to extract it.
+     */
+    private static class Entry {
+        private String name;
+        private int method;
+        private long compressedSize;
+        private long size;
+        private long localHeaderOffset;
+        private int mode;
+        private File destination;
+    }
+
+    /**
+     * This class extracts a range of entries, splitting it while it holds more than a batch of bytes.
+     */
+    private class ExtractTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private ZipFile zip;
+        private FileChannel channel;
+        private List<Entry> entries;
+        private int from;
+        private int to;
+
+        ExtractTask(ZipFile zip, FileChannel channel, List<Entry> entries, int from, int to) {
+            this.zip = zip;
+            this.channel = channel;
+            this.entries = entries;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            long bytes = 0;
+            for (int i = from; i < to; i++) {
+                bytes += entries.get(i).size;
+            }
+            if (to - from > 1 && bytes > BATCH_BYTES) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ExtractTask(zip, channel, entries, from, middle),
+                        new ExtractTask(zip, channel, entries, middle, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                try {
+                    extractEntry(zip, channel, entries.get(i));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+}
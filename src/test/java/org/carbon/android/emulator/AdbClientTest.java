@@ -0,0 +1,133 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * This class tests the adb host protocol client against a stand-in adb server.
+ */
+public class AdbClientTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeAdbServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new FakeAdbServer(0, 0, 3);
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        server.stop();
+    }
+
+    @Test
+    public void shellSwitchesToTheDevice() throws IOException {
+        AdbClient client = new AdbClient("127.0.0.1", server.getPort(), FakeAdbServer.SERIAL);
+
+        assertTrue(client.isServerRunning());
+        assertTrue(client.isDeviceOnline());
+        assertEquals("25\n", client.shell("getprop ro.build.version.sdk"));
+        assertTrue(server.getRequests().contains("host:transport:" + FakeAdbServer.SERIAL));
+        assertTrue(server.getRequests().contains("shell:getprop ro.build.version.sdk"));
+    }
+
+    @Test
+    public void transportToAnyDeviceWithoutSerial() throws IOException {
+        AdbClient client = new AdbClient("127.0.0.1", server.getPort(), null);
+
+        client.shell("getprop sys.boot_completed");
+        assertEquals("host:transport-any", server.getRequests().get(0));
+    }
+
+    @Test
+    public void execReadsOutputAsProduced() throws IOException {
+        AdbClient client = new AdbClient("127.0.0.1", server.getPort(), FakeAdbServer.SERIAL);
+
+        try (Socket socket = client.openExec("pm list packages", 1000);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                     StandardCharsets.UTF_8))) {
+            assertEquals("package:com.example.app0", reader.readLine());
+        }
+        assertTrue(server.getRequests().contains("exec:pm list packages"));
+    }
+
+    @Test
+    public void execStreamsTheFileToTheCommand() throws IOException {
+        AdbClient client = new AdbClient("127.0.0.1", server.getPort(), FakeAdbServer.SERIAL);
+        File apk = createFile("agent.apk", 100 * 1024);
+
+        assertEquals("Success\n", client.execIn("cmd package install -r -d -S " + apk.length(), apk));
+        assertTrue(server.getRequests().contains("exec:cmd package install -r -d -S " + apk.length()));
+    }
+
+    @Test
+    public void pushSendsTheFileInDataChunks() throws IOException {
+        AdbClient client = new AdbClient("127.0.0.1", server.getPort(), FakeAdbServer.SERIAL);
+        File apk = createFile("agent.apk", 150 * 1024);       // three DATA chunks
+
+        client.push(apk, "/data/local/tmp/agent.apk", 0644);
+        assertTrue(server.getRequests().contains("sync:"));
+        assertEquals("/data/local/tmp/agent.apk," + 0100644, server.getPushTarget());
+        assertArrayEquals(Files.readAllBytes(apk.toPath()), server.getPushData());
+    }
+
+    @Test
+    public void failReplyBecomesIOException() {
+        AdbClient client = new AdbClient("127.0.0.1", server.getPort(), "emulator-5556");
+
+        assertFalse(client.isDeviceOnline());
+        try {
+            client.shell("getprop sys.boot_completed");
+            fail("The shell ran on a device that is not connected");
+        } catch (IOException e) {
+            assertEquals("host:transport:emulator-5556 failed: device 'emulator-5556' not found", e.getMessage());
+        }
+        assertFalse(server.getRequests().contains("shell:getprop sys.boot_completed"));
+    }
+
+    private File createFile(String name, int size) throws IOException {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), content);
+        return file;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * This class tests the boot wait of the device against a stand-in adb server.
+ */
+public class AdbDeviceTest {
+    private static final String WAIT_FOR_BOOT = "shell:while";
+
+    private FakeAdbServer server;
+
+    @After
+    public void stopServer() throws IOException {
+        server.stop();
+    }
+
+    @Test
+    public void waitForBootReturnsWhenBootCompletes() throws Exception {
+        AdbDevice device = startDevice(300);
+
+        long bootMillis = device.waitForBoot(TimeUnit.SECONDS.toMillis(10));
+        assertTrue("Returned after " + bootMillis + " ms", bootMillis >= 250 && bootMillis < 5000);
+        assertEquals(1, countBootWaits());
+    }
+
+    @Test
+    public void waitForBootReconnectsWhenConnectionDrops() throws Exception {
+        AdbDevice device = startDevice(1000);
+        server.dropBootWaits(2);
+
+        long bootMillis = device.waitForBoot(TimeUnit.SECONDS.toMillis(10));
+        assertTrue("Returned after " + bootMillis + " ms", bootMillis >= 950 && bootMillis < 5000);
+        assertEquals(3, countBootWaits());
+    }
+
+    @Test
+    public void waitForBootTimesOutAtTheDeadline() throws Exception {
+        AdbDevice device = startDevice(TimeUnit.MINUTES.toMillis(1));
+
+        long start = System.nanoTime();
+        try {
+            device.waitForBoot(500);
+            fail("The boot wait returned before the boot completed");
+        } catch (TimeoutException e) {
+            long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("Timed out after " + waitedMillis + " ms", waitedMillis >= 450 && waitedMillis < 5000);
+        }
+    }
+
+    private AdbDevice startDevice(long bootMillis) throws IOException {
+        server = new FakeAdbServer(0, bootMillis, 0);
+        server.reset();
+        // the adb executable is not run while the server is accepting connections
+        return new AdbDevice("adb", new AdbClient("127.0.0.1", server.getPort(), FakeAdbServer.SERIAL));
+    }
+
+    private long countBootWaits() {
+        return server.getRequests().stream().filter(request -> request.startsWith(WAIT_FOR_BOOT)).count();
+    }
+}
@@ -0,0 +1,175 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * This class tests the resumed and restarted downloads of the artifact downloader against a local HTTP
+ * server, and the SHA-256 check of the downloaded artifacts in the artifact cache.
+ */
+public class ArtifactDownloaderTest {
+    private static final int SIZE = 1024 * 1024;
+    private static final String ARTIFACT = "sys-img.zip";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private byte[] content = createContent(1);
+    private RangeHttpServer server;
+    private File target;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new RangeHttpServer(content);
+        target = new File(folder.getRoot(), ARTIFACT);
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    public void downloadReturnsTheSha256() throws Exception {
+        String sha256 = new ArtifactDownloader(1, 0, 0).download(server.getUrl(ARTIFACT), target.getPath());
+
+        assertEquals(sha256(content), sha256);
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void interruptedDownloadResumes() throws Exception {
+        server.cutAfter(SIZE / 4);
+        downloadUntilCut();
+        assertTrue(new File(target.getPath() + ".part.state").isFile());
+
+        server.cutAfter(-1);
+        server.getRequests().clear();
+        String sha256 = new ArtifactDownloader(1, 0, 0).download(server.getUrl(ARTIFACT), target.getPath());
+
+        assertEquals(sha256(content), sha256);
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        String resumed = server.getRequests().get(server.getRequests().size() - 1);
+        assertTrue(resumed, resumed.startsWith("GET bytes=") && !resumed.startsWith("GET bytes=0-")
+                && resumed.endsWith(" 206"));
+        assertFalse(new File(target.getPath() + ".part").exists());
+        assertFalse(new File(target.getPath() + ".part.state").exists());
+    }
+
+    @Test
+    public void changedArtifactRestartsTheDownload() throws Exception {
+        byte[] changed = createContent(2);
+        server.changeAfterProbe(changed);
+
+        String sha256 = new ArtifactDownloader(1, 1, 0).download(server.getUrl(ARTIFACT), target.getPath());
+
+        assertEquals(sha256(changed), sha256);
+        assertArrayEquals(changed, Files.readAllBytes(target.toPath()));
+        assertTrue(server.getRequests().contains("GET bytes=0-" + (SIZE - 1) + " 200"));
+    }
+
+    @Test
+    public void changedArtifactIsNotSplicedIntoResumedDownload() throws Exception {
+        server.cutAfter(SIZE / 4);
+        downloadUntilCut();
+
+        byte[] changed = createContent(2);
+        server.cutAfter(-1);
+        server.changeAfterProbe(changed);
+        String sha256 = new ArtifactDownloader(1, 1, 0).download(server.getUrl(ARTIFACT), target.getPath());
+
+        assertEquals(sha256(changed), sha256);
+        assertArrayEquals(changed, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void changedArtifactFailsWithoutRetries() throws Exception {
+        server.changeAfterProbe(createContent(2));
+
+        try {
+            new ArtifactDownloader(1, 0, 0).download(server.getUrl(ARTIFACT), target.getPath());
+            fail("The download completed although the artifact changed");
+        } catch (IOException e) {
+            assertEquals("Artifact changed on the server", e.getMessage());
+        }
+        assertFalse(target.exists());
+    }
+
+    @Test
+    public void corruptedArtifactIsRemovedFromCache() throws Exception {
+        String url = server.getUrl(ARTIFACT);
+        String sha256 = new ArtifactDownloader(1, 0, 0).download(url, target.getPath());
+        ArtifactCache cache = new ArtifactCache(folder.newFolder("cache"), Long.MAX_VALUE, false);
+        cache.store(url, target, sha256);
+
+        File cached = cache.lookup(url);
+        assertNotNull(cached);
+        try (RandomAccessFile file = new RandomAccessFile(cached, "rw")) {
+            file.seek(SIZE / 2);
+            file.write(~content[SIZE / 2]);
+        }
+
+        assertNull(cache.lookup(url));
+        assertFalse(cached.exists());
+        assertNull(cache.lookup(url));
+    }
+
+    /**
+     * This method runs a download which fails as the server cuts the response short, leaving the partial file.
+     */
+    private void downloadUntilCut() {
+        try {
+            new ArtifactDownloader(1, 0, 0).download(server.getUrl(ARTIFACT), target.getPath());
+            fail("The download completed although the server cut the response");
+        } catch (IOException expected) {
+            assertFalse(target.exists());
+        }
+    }
+
+    private static byte[] createContent(long seed) {
+        byte[] bytes = new byte[SIZE];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static String sha256(byte[] bytes) throws NoSuchAlgorithmException {
+        return ArtifactDownloader.toHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class tests the sizing of the AVDs for the host and the config.ini written for them.
+ */
+public class AvdHardwareProfileTest {
+    // 8 cores, 16 GB with 12 GB available, of which 10650 MB are usable after the reserve of a tenth
+    private static final HostResources WORKSTATION = new HostResources(8, 16384, 12288, 100000);
+    // 2 cores, 4 GB with 2 GB available, of which 1024 MB are usable after the reserve of 1 GB
+    private static final HostResources SMALL_HOST = new HostResources(2, 4096, 2048, 2000);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void singleDeviceGetsTheLargestProfile() {
+        AvdHardwareProfile profile = AvdHardwareProfile.forHost(WORKSTATION, 1);
+
+        assertEquals(AvdHardwareProfile.MAX_RAM_MB, profile.getRamMb());
+        assertEquals(4, profile.getCores());
+        assertEquals(128, profile.getHeapMb());
+        assertEquals(800, profile.getDataPartitionMb());
+        assertTrue(profile.fitsInMemory());
+    }
+
+    @Test
+    public void devicesShareTheHost() {
+        AvdHardwareProfile profile = AvdHardwareProfile.forHost(WORKSTATION, 8);
+
+        // 10650 MB / 8 less the overhead of the emulator, rounded down to 64 MB
+        assertEquals(1024, profile.getRamMb());
+        assertEquals(2, profile.getCores());
+        assertEquals(64, profile.getHeapMb());
+        assertEquals(800, profile.getDataPartitionMb());
+        assertTrue(profile.fitsInMemory());
+        assertEquals(13, profile.getMaxDensity());
+        assertEquals("memory", profile.getDensityLimit());
+    }
+
+    @Test
+    public void smallHostGetsTheSmallestProfile() {
+        AvdHardwareProfile profile = AvdHardwareProfile.forHost(SMALL_HOST, 3);
+
+        assertEquals(AvdHardwareProfile.MIN_RAM_MB, profile.getRamMb());
+        assertEquals(1, profile.getCores());
+        assertEquals(32, profile.getHeapMb());
+        assertEquals(200, profile.getDataPartitionMb());
+        assertFalse(profile.fitsInMemory());
+        assertEquals(1, profile.getMaxDensity());
+    }
+
+    @Test
+    public void writeConfigReplacesTheHardwareKeys() throws IOException {
+        File config = folder.newFile("config.ini");
+        Files.write(config.toPath(), Arrays.asList("avd.ini.encoding=UTF-8", "hw.ramSize=1536", "hw.lcd.density=240",
+                "skin.path=_no_skin", "vm.heapSize = 64", "image.sysdir.1=system-images/android-23/default/x86/"),
+                StandardCharsets.UTF_8);
+        AvdHardwareProfile profile = AvdHardwareProfile.forHost(WORKSTATION, 8);
+
+        profile.writeConfig(config, config);
+
+        assertEquals(Arrays.asList("avd.ini.encoding=UTF-8", "hw.ramSize=" + profile.getRamMb(), "hw.lcd.density=240",
+                "skin.path=_no_skin", "vm.heapSize=" + profile.getHeapMb(),
+                "image.sysdir.1=system-images/android-23/default/x86/", "hw.cpu.ncore=" + profile.getCores(),
+                "disk.dataPartition.size=" + profile.getDataPartitionMb() + "M"),
+                Files.readAllLines(config.toPath(), StandardCharsets.UTF_8));
+        assertFalse(new File(config.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void writeConfigFromTemplate() throws IOException {
+        File template = folder.newFile("template.ini");
+        Files.write(template.toPath(), Arrays.asList("hw.keyboard=yes", "hw.ramSize=1536"), StandardCharsets.UTF_8);
+        File target = new File(folder.getRoot(), "config.ini");
+        AvdHardwareProfile profile = AvdHardwareProfile.forHost(SMALL_HOST, 1);
+
+        profile.writeConfig(template, target);
+
+        assertEquals(Arrays.asList("hw.keyboard=yes", "hw.ramSize=" + profile.getRamMb(),
+                "hw.cpu.ncore=" + profile.getCores(), "vm.heapSize=" + profile.getHeapMb(),
+                "disk.dataPartition.size=" + profile.getDataPartitionMb() + "M"),
+                Files.readAllLines(target.toPath(), StandardCharsets.UTF_8));
+        assertEquals(Arrays.asList("hw.keyboard=yes", "hw.ramSize=1536"),
+                Files.readAllLines(template.toPath(), StandardCharsets.UTF_8));
+    }
+}
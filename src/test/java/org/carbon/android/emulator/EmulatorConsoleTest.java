@@ -0,0 +1,218 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * This class tests the emulator console and the trace replay against a stand-in emulator console.
+ */
+public class EmulatorConsoleTest {
+    private static final String AUTH_TOKEN = "Vq3tN8bYxK0mL2pR";
+    private static final long LATENCY_MILLIS = 50;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeEmulatorConsole fakeConsole;
+    private File tokenFile;
+
+    @Before
+    public void startConsole() throws IOException {
+        fakeConsole = new FakeEmulatorConsole(AUTH_TOKEN, LATENCY_MILLIS);
+        tokenFile = folder.newFile(EmulatorConsole.AUTH_TOKEN_FILE);
+        Files.write(tokenFile.toPath(), (AUTH_TOKEN + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void stopConsole() throws IOException {
+        fakeConsole.stop();
+    }
+
+    @Test
+    public void authenticatesWithTheToken() throws IOException {
+        try (EmulatorConsole console = openConsole(tokenFile)) {
+            assertEquals("", console.send("geo fix 79.86 6.92"));
+        }
+        assertEquals(1, fakeConsole.getCommands());
+        assertEquals("geo fix 79.86 6.92", fakeConsole.getLastCommand());
+    }
+
+    @Test
+    public void wrongTokenFailsTheConnection() throws IOException {
+        Files.write(tokenFile.toPath(), "wrong".getBytes(StandardCharsets.UTF_8));
+
+        try (EmulatorConsole ignored = openConsole(tokenFile)) {
+            fail("Authenticated with a wrong token");
+        } catch (IOException e) {
+            assertEquals("Console command failed: authentication token does not match "
+                    + "~/.emulator_console_auth_token", e.getMessage());
+        }
+    }
+
+    @Test
+    public void missingTokenFailsTheConnection() throws IOException {
+        File missing = new File(folder.getRoot(), "missing");
+
+        try (EmulatorConsole ignored = openConsole(missing)) {
+            fail("Authenticated without a token");
+        } catch (IOException e) {
+            assertEquals("Console auth token not found in " + missing, e.getMessage());
+        }
+    }
+
+    @Test
+    public void koReplyBecomesIOException() throws IOException {
+        try (EmulatorConsole console = openConsole(tokenFile)) {
+            try {
+                console.send("geo bogus");
+                fail("The failed command returned");
+            } catch (IOException e) {
+                assertEquals("Console command failed: bad sub-command", e.getMessage());
+            }
+            // the console is still usable after a failed command
+            console.send("power capacity 80");
+        }
+        assertEquals("power capacity 80", fakeConsole.getLastCommand());
+    }
+
+    @Test
+    public void sendBatchTakesOneRoundTrip() throws IOException {
+        List<String> commands = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            commands.add(i == 10 ? "geo bogus" : "sensor set acceleration 0:9.8:" + i);
+        }
+
+        List<String> errors;
+        long start = System.nanoTime();
+        try (EmulatorConsole console = openConsole(tokenFile)) {
+            errors = console.sendBatch(commands);
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(Collections.singletonList("geo bogus: bad sub-command"), errors);
+        assertEquals(19, fakeConsole.getCommands());
+        assertEquals("sensor set acceleration 0:9.8:19", fakeConsole.getLastCommand());
+        // the connection and authentication take two round trips, sending one at a time would take 20 more
+        assertTrue("Took " + millis + " ms", millis < 10 * LATENCY_MILLIS);
+    }
+
+    @Test
+    public void replayWithoutWaitingSendsFullBatches() throws IOException {
+        EmulatorTrace trace = writeTrace(200, 5);
+        List<Integer> batches = new ArrayList<>();
+
+        try (EmulatorConsole console = openRecordingConsole(batches)) {
+            assertEquals(200, new TraceReplayer(console, trace, 0, false).replay());
+        }
+        assertEquals(Arrays.asList(TraceReplayer.MAX_BATCH, TraceReplayer.MAX_BATCH, TraceReplayer.MAX_BATCH,
+                200 - 3 * TraceReplayer.MAX_BATCH), batches);
+        assertEquals(200, fakeConsole.getCommands());
+    }
+
+    @Test
+    public void replayFollowsTheTimesOfTheTrace() throws IOException {
+        EmulatorTrace trace = writeTrace(11, 40);
+        List<Integer> batches = new ArrayList<>();
+
+        long start = System.nanoTime();
+        try (EmulatorConsole console = openRecordingConsole(batches)) {
+            assertEquals(11, new TraceReplayer(console, trace, 2, false).replay());
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // 400 ms of readings twice as fast, the readings due while a batch is sent go in the next batch
+        assertTrue("Took " + millis + " ms", millis >= 200);
+        assertEquals(11, batches.stream().mapToInt(Integer::intValue).sum());
+        assertTrue(batches.toString(), batches.size() > 1 && batches.size() <= 11);
+    }
+
+    @Test
+    public void stopEndsLoopedReplay() throws Exception {
+        EmulatorTrace trace = writeTrace(2, 60000);
+        List<Integer> batches = new ArrayList<>();
+
+        try (EmulatorConsole console = openRecordingConsole(batches)) {
+            TraceReplayer replayer = new TraceReplayer(console, trace, 1, true);
+            Thread stopper = new Thread(() -> {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException ignored) {
+                    // stop now
+                }
+                replayer.stop();
+            });
+            stopper.start();
+            long start = System.nanoTime();
+            // the second reading is due in a minute, so only the first one is sent before the stop
+            assertEquals(1, replayer.replay());
+            assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 10);
+            stopper.join();
+        }
+    }
+
+    private EmulatorConsole openConsole(File authTokenFile) throws IOException {
+        return new EmulatorConsole("127.0.0.1", fakeConsole.getPort(), authTokenFile, 5000);
+    }
+
+    /**
+     * This method opens a console which keeps the size of each batch sent.
+     */
+    private EmulatorConsole openRecordingConsole(final List<Integer> batches) throws IOException {
+        return new EmulatorConsole("127.0.0.1", fakeConsole.getPort(), tokenFile, 5000) {
+            @Override
+            synchronized List<String> sendBatch(List<String> commands) throws IOException {
+                batches.add(commands.size());
+                return super.sendBatch(commands);
+            }
+        };
+    }
+
+    /**
+     * This method writes and reads a sensor trace with the readings the given time apart.
+     */
+    private EmulatorTrace writeTrace(int readings, long intervalMillis) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("# time,sensor,x,y,z");
+        for (int i = 0; i < readings; i++) {
+            lines.add(i * intervalMillis + ",acceleration,0.1,9.8," + i);
+        }
+        File traceFile = folder.newFile();
+        Files.write(traceFile.toPath(), lines, StandardCharsets.UTF_8);
+        return EmulatorTrace.read(traceFile, EmulatorTrace.Kind.SENSOR, 0);
+    }
+}
@@ -0,0 +1,250 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class is a stand-in adb server on the loopback interface. It answers the host protocol requests
+ * used by AdbClient after a configurable latency, and sys.boot_completed becomes 1 a configurable time
+ * after {@link #reset()}. The requests and the pushed files are kept for the tests.
+ */
+class FakeAdbServer {
+    static final String SERIAL = "emulator-5554";
+    static final ApkManifest AGENT = new ApkManifest("org.wso2.iot.agent", 421, "3.1.0",
+            "org.wso2.iot.agent.SplashActivity", "53c7caa2");
+    private static final String STREAMED_INSTALL = "exec:cmd package install ";
+
+    private ServerSocket serverSocket;
+    private ExecutorService executor;
+    private long latencyMillis;
+    private long bootMillis;
+    private String packageList;
+    private volatile long bootStart;
+    private List<String> requests = new CopyOnWriteArrayList<>();
+    private AtomicInteger dropsLeft = new AtomicInteger();
+    private volatile String pushTarget;
+    private volatile byte[] pushData;
+
+    FakeAdbServer(long latencyMillis, long bootMillis, int packages) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.bootMillis = bootMillis;
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < packages; i++) {
+            builder.append("package:com.example.app").append(i).append('\n');
+        }
+        packageList = builder.append("package:org.wso2.iot.agent\n").toString();
+
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        executor = Executors.newCachedThreadPool();
+        executor.execute(() -> {
+            while (!serverSocket.isClosed()) {
+                try {
+                    final Socket socket = serverSocket.accept();
+                    executor.execute(() -> serve(socket));
+                } catch (IOException ignored) {
+                    // server stopped
+                }
+            }
+        });
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * This method starts the boot over from now.
+     */
+    void reset() {
+        bootStart = System.currentTimeMillis();
+    }
+
+    /**
+     * This method makes the server close the next boot waits before the boot is completed, like adbd
+     * restarting in the device.
+     *
+     * @param count - number of boot waits to drop.
+     */
+    void dropBootWaits(int count) {
+        dropsLeft.set(count);
+    }
+
+    /**
+     * This method returns the requests received, the host requests and the services alike.
+     */
+    List<String> getRequests() {
+        return requests;
+    }
+
+    /**
+     * This method returns the path and the mode sent with the last file pushed, eg: "/data/local/tmp/a,33188".
+     */
+    String getPushTarget() {
+        return pushTarget;
+    }
+
+    /**
+     * This method returns the content of the last file pushed.
+     */
+    byte[] getPushData() {
+        return pushData;
+    }
+
+    void stop() throws IOException {
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+
+    private boolean isBooted() {
+        return System.currentTimeMillis() - bootStart >= bootMillis;
+    }
+
+    private void serve(Socket socket) {
+        try (Socket connection = socket) {
+            DataInputStream in = new DataInputStream(connection.getInputStream());
+            OutputStream out = connection.getOutputStream();
+            String request = readRequest(in);
+            requests.add(request);
+
+            if (request.equals("host:version")) {
+                out.write("OKAY0004001f".getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+            if (!request.equals("host:transport-any") && !request.equals("host:transport:" + SERIAL)) {
+                fail(out, request.startsWith("host:transport:") ? "device '" + request.substring(15)
+                        + "' not found" : "unknown host service");
+                return;
+            }
+            out.write("OKAY".getBytes(StandardCharsets.US_ASCII));
+            String service = readRequest(in);
+            requests.add(service);
+            Thread.sleep(latencyMillis);
+            out.write("OKAY".getBytes(StandardCharsets.US_ASCII));
+
+            if (service.equals("sync:")) {
+                sync(in, out);
+            } else if (service.startsWith(STREAMED_INSTALL)) {
+                String size = service.substring(service.indexOf("-S ") + 3);
+                in.readFully(new byte[Integer.parseInt(size)]);
+                out.write("Success\n".getBytes(StandardCharsets.UTF_8));
+            } else if (service.startsWith("shell:") || service.startsWith("exec:")) {
+                out.write(answer(service.substring(service.indexOf(':') + 1)).getBytes(StandardCharsets.UTF_8));
+            } else {
+                fail(out, "unknown service");
+            }
+        } catch (IOException | InterruptedException ignored) {
+            // client disconnected
+        }
+    }
+
+    /**
+     * This method returns the output of a shell command like a device running the agent would.
+     */
+    private String answer(String command) throws IOException, InterruptedException {
+        if (command.contains("while")) {
+            boolean drop = dropsLeft.getAndUpdate(left -> Math.max(0, left - 1)) > 0;
+            while (!isBooted()) {
+                Thread.sleep(10);
+                if (drop) {
+                    throw new IOException("boot wait dropped");
+                }
+            }
+            return "boot_completed\n";
+        }
+        if (command.contains("getprop sys.boot_completed")) {
+            return isBooted() ? "1\n" : "\n";
+        }
+        if (command.startsWith("getprop ro.build.version.sdk")) {
+            return "25\n";
+        }
+        if (command.startsWith("pm list packages")) {
+            return packageList;
+        }
+        if (command.equals("dumpsys package " + AGENT.getPackageName())) {
+            return "Packages:\n  Package [" + AGENT.getPackageName() + "] (3f2a1b0):\n    userId=10058\n"
+                    + "    versionCode=" + AGENT.getVersionCode() + " minSdk=17 targetSdk=23\n"
+                    + "    versionName=" + AGENT.getVersionName() + "\n"
+                    + "    signatures=PackageSignatures{9fbbd4d [" + AGENT.getSignatures() + "]}\n";
+        }
+        if (command.startsWith("pm install")) {
+            return "Success\n";
+        }
+        if (command.startsWith("am start")) {
+            return "Starting: Intent { cmp=" + command.substring(command.lastIndexOf(' ') + 1) + " }\n";
+        }
+        return "";
+    }
+
+    /**
+     * This method receives a file sent with the sync service and keeps it as the last file pushed.
+     */
+    private void sync(DataInputStream in, OutputStream out) throws IOException {
+        byte[] header = new byte[8];
+        String target = null;
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        while (true) {
+            in.readFully(header);
+            String id = new String(header, 0, 4, StandardCharsets.US_ASCII);
+            int value = ByteBuffer.wrap(header, 4, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+            if (id.equals("SEND") || id.equals("DATA")) {
+                byte[] payload = new byte[value];
+                in.readFully(payload);
+                if (id.equals("SEND")) {
+                    target = new String(payload, StandardCharsets.UTF_8);
+                    data.reset();
+                } else {
+                    data.write(payload);
+                }
+            } else if (id.equals("DONE")) {
+                pushTarget = target;
+                pushData = data.toByteArray();
+                out.write(new byte[]{'O', 'K', 'A', 'Y', 0, 0, 0, 0});
+            } else {
+                return;
+            }
+        }
+    }
+
+    private static String readRequest(DataInputStream in) throws IOException {
+        byte[] length = new byte[4];
+        in.readFully(length);
+        byte[] request = new byte[Integer.parseInt(new String(length, StandardCharsets.US_ASCII), 16)];
+        in.readFully(request);
+        return new String(request, StandardCharsets.UTF_8);
+    }
+
+    private static void fail(OutputStream out, String message) throws IOException {
+        out.write(("FAIL" + String.format("%04x", message.length()) + message).getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is a stand-in emulator console on the loopback interface. It asks for the auth token like the
+ * emulator does, answers the geo, power and sensor commands, and sends the replies of the commands it has
+ * received together after a configurable latency, so a round trip costs the latency once however many
+ * commands were pipelined in it.
+ */
+class FakeEmulatorConsole {
+    private ServerSocket serverSocket;
+    private ExecutorService executor;
+    private String authToken;
+    private long latencyMillis;
+    private AtomicLong commands = new AtomicLong();
+    private volatile String lastCommand;
+
+    FakeEmulatorConsole(String authToken, long latencyMillis) throws IOException {
+        this.authToken = authToken;
+        this.latencyMillis = latencyMillis;
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        executor = Executors.newCachedThreadPool();
+        executor.execute(() -> {
+            while (!serverSocket.isClosed()) {
+                try {
+                    final Socket socket = serverSocket.accept();
+                    executor.execute(() -> serve(socket));
+                } catch (IOException ignored) {
+                    // server stopped
+                }
+            }
+        });
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * This method gives the number of geo, power and sensor commands received.
+     *
+     * @return the number of commands.
+     */
+    long getCommands() {
+        return commands.get();
+    }
+
+    String getLastCommand() {
+        return lastCommand;
+    }
+
+    void stop() throws IOException {
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+
+    private void serve(Socket socket) {
+        try (Socket connection = socket) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(),
+                    StandardCharsets.UTF_8));
+            OutputStream out = new BufferedOutputStream(connection.getOutputStream());
+            write(out, "Android Console: Authentication required\r\n"
+                    + "Android Console: type 'auth <auth_token>' to authenticate\r\nOK\r\n");
+            out.flush();
+
+            boolean authenticated = false;
+            String readLine;
+            while ((readLine = reader.readLine()) != null) {
+                if (readLine.startsWith("auth ")) {
+                    authenticated = readLine.substring(5).equals(authToken);
+                    write(out, authenticated ? "Android Console: type 'help' for a list of commands\r\nOK\r\n"
+                            : "KO: authentication token does not match ~/.emulator_console_auth_token\r\n");
+                } else if (!authenticated) {
+                    write(out, "KO: unknown command, try 'help'\r\n");
+                } else if (readLine.startsWith("geo fix ") || readLine.startsWith("power ")
+                        || readLine.startsWith("sensor set ")) {
+                    commands.incrementAndGet();
+                    lastCommand = readLine;
+                    write(out, "OK\r\n");
+                } else {
+                    write(out, "KO: bad sub-command\r\n");
+                }
+                // the replies go out once the commands which arrived together are answered
+                if (!reader.ready()) {
+                    Thread.sleep(latencyMillis);
+                    out.flush();
+                }
+            }
+        } catch (IOException | InterruptedException ignored) {
+            // client disconnected
+        }
+    }
+
+    private static void write(OutputStream out, String reply) throws IOException {
+        out.write(reply.getBytes(StandardCharsets.UTF_8));
+    }
+}
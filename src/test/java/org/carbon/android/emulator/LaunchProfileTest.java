@@ -0,0 +1,103 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class tests the emulator options of the launch profiles and the KVM check.
+ */
+public class LaunchProfileTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void headlessProfileHasNoWindowAndSoftwareGpu() {
+        LaunchProfile profile = LaunchProfile.forHost(Constants.MAC_OS, LaunchProfile.HEADLESS, null);
+
+        assertEquals(Arrays.asList("-no-window", "-no-audio", "-no-boot-anim", "-gpu", LaunchProfile.SOFTWARE_GPU),
+                profile.getEmulatorOptions());
+    }
+
+    @Test
+    public void headlessProfileKeepsTheGivenGpu() {
+        LaunchProfile profile = LaunchProfile.forHost(Constants.WINDOWS_OS, LaunchProfile.HEADLESS, "host");
+
+        assertEquals(Arrays.asList("-no-window", "-no-audio", "-no-boot-anim", "-gpu", "host"),
+                profile.getEmulatorOptions());
+    }
+
+    @Test
+    public void desktopProfileLeavesTheOptionsToTheEmulator() {
+        LaunchProfile profile = LaunchProfile.forHost(Constants.MAC_OS, LaunchProfile.DESKTOP, null);
+
+        assertEquals(Collections.emptyList(), profile.getEmulatorOptions());
+    }
+
+    @Test
+    public void linuxProfileSetsTheAcceleration() {
+        List<String> options = LaunchProfile.forHost("linux", LaunchProfile.DESKTOP, null).getEmulatorOptions();
+
+        String accelerator = LaunchProfile.probeKvm(new File("/dev/kvm")) == null ? "on" : "off";
+        assertEquals(Arrays.asList("-accel", accelerator), options);
+    }
+
+    @Test
+    public void accelerationOffWithoutKvm() {
+        LaunchProfile profile = new LaunchProfile(true, "off", LaunchProfile.SOFTWARE_GPU, "no kvm");
+
+        assertEquals(Arrays.asList("-no-window", "-no-audio", "-no-boot-anim", "-gpu", LaunchProfile.SOFTWARE_GPU,
+                "-accel", "off"), profile.getEmulatorOptions());
+    }
+
+    @Test
+    public void kvmPresent() throws IOException {
+        assertNull(LaunchProfile.probeKvm(folder.newFile("kvm")));
+    }
+
+    @Test
+    public void kvmMissing() {
+        File kvm = new File(folder.getRoot(), "kvm");
+
+        assertEquals(kvm + " does not exist, enable virtualization in the BIOS and load the kvm module",
+                LaunchProfile.probeKvm(kvm));
+    }
+
+    @Test
+    public void kvmNotOpened() throws IOException {
+        // a folder cannot be opened for writing, like /dev/kvm by a user outside the kvm group
+        File kvm = folder.newFolder("kvm");
+
+        String problem = LaunchProfile.probeKvm(kvm);
+        assertTrue(problem, problem.startsWith(kvm + " cannot be opened (")
+                && problem.endsWith("), add the user to the kvm group"));
+    }
+}
@@ -0,0 +1,133 @@
+/*
+*  Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.carbon.android.emulator;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class serves a byte array over HTTP on the loopback interface and supports single Range requests
+ * with a strong ETag and If-Range, like the Android repository does. The content can be changed and the
+ * responses cut short, to test resumed and restarted downloads.
+ */
+class RangeHttpServer {
+    private static final String PROBE_RANGE = "bytes=0-0";
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private volatile byte[] content;
+    private volatile byte[] nextContent;        // replaces the content after the next probe
+    private volatile long cutAfter = -1;        // bytes sent in each response before closing it, -1 for all
+    private List<String> requests = new CopyOnWriteArrayList<>();
+
+    RangeHttpServer(byte[] content) throws IOException {
+        this.content = content;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/", exchange -> {
+            byte[] served = this.content;
+            String eTag = eTag(served);
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            boolean partial = range != null && range.startsWith("bytes=") && (ifRange == null || ifRange.equals(eTag));
+            long start = 0;
+            long end = served.length - 1;
+
+            exchange.getResponseHeaders().add("ETag", eTag);
+            exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+            if (partial) {
+                String[] values = range.substring("bytes=".length()).split("-");
+                start = Long.parseLong(values[0]);
+                if (values.length > 1 && !values[1].isEmpty()) {
+                    end = Math.min(end, Long.parseLong(values[1]));
+                }
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/"
+                        + served.length);
+            }
+            int code = partial ? 206 : 200;
+            requests.add(exchange.getRequestMethod() + " " + range + " " + code);
+            if (PROBE_RANGE.equals(range) && nextContent != null) {
+                this.content = nextContent;
+                nextContent = null;
+            }
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(code, -1);
+                exchange.close();
+                return;
+            }
+            long length = end - start + 1;
+            long sent = cutAfter < 0 || PROBE_RANGE.equals(range) ? length : Math.min(length, cutAfter);
+            // a cut response is chunked, so it ends short of the range instead of stalling the client
+            exchange.sendResponseHeaders(code, sent < length ? 0 : length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(served, (int) start, (int) sent);
+            }
+        });
+        server.start();
+    }
+
+    String getUrl(String path) {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/" + path;
+    }
+
+    /**
+     * This method replaces the content, and so its ETag, right after answering the next probe of the download.
+     *
+     * @param next - the new content.
+     */
+    void changeAfterProbe(byte[] next) {
+        nextContent = next;
+    }
+
+    /**
+     * This method makes each response send only the given number of bytes before the connection is closed.
+     *
+     * @param bytes - bytes to send, -1 to send the whole responses.
+     */
+    void cutAfter(long bytes) {
+        cutAfter = bytes;
+    }
+
+    /**
+     * This method returns the requests received as the method, the Range header and the response code,
+     * eg: "GET bytes=0-1023 206".
+     */
+    List<String> getRequests() {
+        return requests;
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static String eTag(byte[] content) {
+        return "\"" + Integer.toHexString(Arrays.hashCode(content)) + "\"";
+    }
+}